@@ -43,6 +43,8 @@ public class IndexListActivity extends AppCompatActivity {
         mIndexItems.add(new IndexItem(getString(R.string.switch_sample),SwitchActivity.class));
         mIndexItems.add(new IndexItem(getString(R.string.dottext_sample),DotTextActivity.class));
         mIndexItems.add(new IndexItem(getString(R.string.rounded_image_sample),RoundedImageActivity.class));
+        mIndexItems.add(new IndexItem(getString(R.string.rounded_benchmark),RoundedBenchmarkActivity.class));
+        mIndexItems.add(new IndexItem(getString(R.string.switch_benchmark),SwitchBenchmarkActivity.class));
         mIndexItems.add(new IndexItem(getString(R.string.material_button),MaterialButtonActivity.class));
     }
 
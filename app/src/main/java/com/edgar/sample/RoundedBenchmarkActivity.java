@@ -0,0 +1,206 @@
+package com.edgar.sample;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.view.ViewCompat;
+import android.view.FrameMetrics;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.CompoundButton;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import com.edgar.widget.RoundedImageView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Created by Edgar on 2019/08/18.
+ * RoundedImageView绘制耗时对比:每帧重绘所有头像,统计平均每帧的绘制耗时.
+ * 帧间隔受垂直同步限制,不能反映绘制开销:API 24以上用FrameMetrics统计UI线程记录和渲染线程提交命令的耗时,
+ * 更低版本在软件Canvas上计时绘制整个网格.
+ * 勾选父布局动画时只移动父布局,头像内容不变.渲染缓存只在软件绘制时生效,在软件Canvas计时的结果中可以对比.
+ * 每列依次使用直角、统一圆角和圆形,关闭轮廓裁剪后可以对比按形状选择图元和全部使用Path的差别.
+ */
+public class RoundedBenchmarkActivity extends AppCompatActivity {
+
+    private static final int ROW_COUNT = 10;
+    private static final int COLUMN_COUNT = 6;
+    private static final int MEASURE_FRAMES = 120;
+
+    private final List<RoundedImageView> mImageViews = new ArrayList<>();
+    private TextView mResultView;
+    private LinearLayout mGridLayout;
+    private int mFrameCount;
+    private boolean mRunning;
+    private CompoundButton mAnimateParent;
+    private FrameMetricsRecorder mFrameMetricsRecorder;
+    private Canvas mSoftwareCanvas;
+    private long mSoftwareDrawNanos;
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            if (mFrameCount++ < MEASURE_FRAMES) {
+                if (mAnimateParent.isChecked()) {
+                    mGridLayout.setTranslationY(mFrameCount % 2);
+                } else {
+                    for (RoundedImageView imageView : mImageViews) {
+                        imageView.invalidate();
+                    }
+                }
+                if (mFrameMetricsRecorder == null) {
+                    drawSoftware();
+                }
+                ViewCompat.postOnAnimation(mGridLayout, this);
+            } else {
+                finishBenchmark();
+            }
+        }
+    };
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.rounded_benchmark_activity);
+        mResultView = findViewById(R.id.benchmark_result);
+        mGridLayout = findViewById(R.id.benchmark_grid);
+        final int size = getResources().getDimensionPixelSize(R.dimen.benchmark_avatar_size);
+        for (int row = 0; row < ROW_COUNT; row++) {
+            LinearLayout rowLayout = new LinearLayout(this);
+            rowLayout.setOrientation(LinearLayout.HORIZONTAL);
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                RoundedImageView imageView = new RoundedImageView(this);
+                imageView.setImageResource(R.drawable.test1);
+                final float radius = size * (column % 3) / 4f;
+                imageView.setCornerRadii(radius, radius, radius, radius);
+                rowLayout.addView(imageView, new LinearLayout.LayoutParams(size, size));
+                mImageViews.add(imageView);
+            }
+            mGridLayout.addView(rowLayout, new LinearLayout.LayoutParams(
+                    ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        }
+        CompoundButton outlineClip = findViewById(R.id.benchmark_outline_clip);
+        outlineClip.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                for (RoundedImageView imageView : mImageViews) {
+                    imageView.setOutlineClipEnabled(isChecked);
+                }
+            }
+        });
+        CompoundButton renderCache = findViewById(R.id.benchmark_render_cache);
+        renderCache.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                for (RoundedImageView imageView : mImageViews) {
+                    imageView.setRenderCacheEnabled(isChecked);
+                }
+            }
+        });
+        mAnimateParent = findViewById(R.id.benchmark_animate_parent);
+        CompoundButton primitiveSelection = findViewById(R.id.benchmark_primitive_selection);
+        primitiveSelection.setChecked(RoundedImageView.isPrimitiveSelectionEnabled());
+        primitiveSelection.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                RoundedImageView.setPrimitiveSelectionEnabled(isChecked);
+                for (RoundedImageView imageView : mImageViews) {
+                    imageView.invalidate();
+                }
+            }
+        });
+    }
+
+    public void onStartBenchmark(View view) {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mFrameCount = 0;
+        mSoftwareDrawNanos = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mFrameMetricsRecorder = new FrameMetricsRecorder();
+            getWindow().addOnFrameMetricsAvailableListener(mFrameMetricsRecorder, new Handler());
+        }
+        mResultView.setText(R.string.benchmark_running);
+        ViewCompat.postOnAnimation(mGridLayout, mFrameRunnable);
+    }
+
+    /**
+     * 没有FrameMetrics时在软件Canvas上绘制一次网格计时,父布局动画时头像内容不变,结果相同.
+     */
+    private void drawSoftware() {
+        if (mSoftwareCanvas == null) {
+            mSoftwareCanvas = new Canvas(Bitmap.createBitmap(Math.max(1, mGridLayout.getWidth()),
+                    Math.max(1, mGridLayout.getHeight()), Bitmap.Config.ARGB_8888));
+        }
+        final long start = System.nanoTime();
+        mGridLayout.draw(mSoftwareCanvas);
+        mSoftwareDrawNanos += System.nanoTime() - start;
+    }
+
+    private void finishBenchmark() {
+        final float average;
+        if (mFrameMetricsRecorder != null) {
+            stopFrameMetrics();
+            average = mFrameMetricsRecorder.getAverageMillis();
+            mFrameMetricsRecorder = null;
+        } else {
+            average = mSoftwareDrawNanos / 1000000f / MEASURE_FRAMES;
+        }
+        mResultView.setText(String.format(Locale.US, getString(R.string.rounded_benchmark_result),
+                mImageViews.size(), average));
+        mGridLayout.setTranslationY(0);
+        mRunning = false;
+    }
+
+    private void stopFrameMetrics() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && mFrameMetricsRecorder != null) {
+            getWindow().removeOnFrameMetricsAvailableListener(mFrameMetricsRecorder);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mRunning = false;
+        stopFrameMetrics();
+        mFrameMetricsRecorder = null;
+        RoundedImageView.setPrimitiveSelectionEnabled(true);
+        super.onDestroy();
+    }
+
+    /**
+     * 每帧的绘制耗时:UI线程记录DisplayList、同步到渲染线程和提交GPU命令,不包含等待垂直同步的时间.
+     */
+    @RequiresApi(Build.VERSION_CODES.N)
+    private static class FrameMetricsRecorder implements Window.OnFrameMetricsAvailableListener {
+
+        private long mTotalNanos;
+        private int mFrames;
+
+        @Override
+        public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCount) {
+            mTotalNanos += frameMetrics.getMetric(FrameMetrics.DRAW_DURATION)
+                    + frameMetrics.getMetric(FrameMetrics.SYNC_DURATION)
+                    + frameMetrics.getMetric(FrameMetrics.COMMAND_ISSUE_DURATION);
+            mFrames++;
+        }
+
+        float getAverageMillis() {
+            return mFrames > 0 ? mTotalNanos / 1000000f / mFrames : 0f;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.edgar.sample;
 
-import android.animation.ValueAnimator;
 import android.os.Bundle;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
@@ -101,16 +100,7 @@ public class RoundedImageActivity extends AppCompatActivity implements SeekBar.O
 
     public void onStartRoundAnimator(View view) {
         if (mRoundedImageView.isOval()) return;
-        ValueAnimator valueAnimator = ValueAnimator.ofFloat(0,mRoundedImageView.getWidth()/2f);
-        valueAnimator.setInterpolator(new LinearInterpolator());
-        valueAnimator.setDuration(1000);
-        valueAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                float radii = (float) animation.getAnimatedValue();
-                mRoundedImageView.setCornerRadii(radii,radii,radii,radii);
-            }
-        });
-        valueAnimator.start();
+        mRoundedImageView.setCornerRadii(0, 0, 0, 0);
+        mRoundedImageView.animateCornerRadii(mRoundedImageView.getWidth() / 2f, 1000, new LinearInterpolator());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,78 @@
+package com.edgar.sample;
+
+import android.os.Bundle;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AppCompatActivity;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+
+import com.edgar.widget.SwitchButton;
+import com.edgar.widget.SwitchGroup;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Created by Edgar on 2019/08/28.
+ * SwitchButton加载耗时和内存对比:一次加载200个开关,统计加载耗时和GC后的Java堆增量.
+ * 相同样式的轨道和默认滑块共享ConstantState.
+ * 全部切换通过SwitchGroup一次提交,同步动画,只收到一次状态改变的事件.
+ */
+public class SwitchBenchmarkActivity extends AppCompatActivity {
+
+    private static final int SWITCH_COUNT = 200;
+
+    private TextView mResultView;
+    private SwitchGroup mContainer;
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.switch_benchmark_activity);
+        mResultView = findViewById(R.id.benchmark_result);
+        mContainer = findViewById(R.id.benchmark_container);
+        mContainer.setOnCheckedChangeListener(new SwitchGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(SwitchGroup group, int[] changedIds) {
+                mResultView.setText(String.format(Locale.US, getString(R.string.switch_benchmark_changed),
+                        changedIds.length));
+            }
+        });
+    }
+
+    public void onToggleAll(View view) {
+        final HashMap<Integer, Boolean> states = new HashMap<>();
+        for (int i = 0; i < mContainer.getChildCount(); i++) {
+            final View child = mContainer.getChildAt(i);
+            if (child instanceof SwitchButton) {
+                states.put(child.getId(), !((SwitchButton) child).isChecked());
+            }
+        }
+        final long start = System.nanoTime();
+        mContainer.applyStates(states, SwitchGroup.ANIMATION_SYNC);
+        final float applyTime = (System.nanoTime() - start) / 1000000f;
+        mResultView.append(String.format(Locale.US, getString(R.string.switch_benchmark_apply), applyTime));
+    }
+
+    public void onStartBenchmark(View view) {
+        mContainer.removeAllViews();
+        final long memoryBefore = getUsedMemory();
+        final LayoutInflater inflater = LayoutInflater.from(this);
+        final long start = System.nanoTime();
+        for (int i = 0; i < SWITCH_COUNT; i++) {
+            inflater.inflate(R.layout.switch_benchmark_item, mContainer, true);
+        }
+        final float inflateTime = (System.nanoTime() - start) / 1000000f;
+        final long memory = getUsedMemory() - memoryBefore;
+        mResultView.setText(String.format(Locale.US, getString(R.string.switch_benchmark_result),
+                SWITCH_COUNT, inflateTime, memory / 1024));
+    }
+
+    private static long getUsedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,53 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Edgar on 2019/08/30.
+ * 记录归还的位图,用于检查位图是否回到复用池.
+ */
+class RecordingBitmapPool implements BitmapPool {
+
+    private final BitmapPool mDelegate = new LruBitmapPool(16 * 1024 * 1024);
+    private final List<Bitmap> mReturned = new ArrayList<>();
+
+    @NonNull
+    @Override
+    public Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        return mDelegate.get(width, height, config);
+    }
+
+    @Override
+    public void put(Bitmap bitmap) {
+        synchronized (mReturned) {
+            mReturned.add(bitmap);
+        }
+        mDelegate.put(bitmap);
+    }
+
+    @Override
+    public void clearMemory() {
+        mDelegate.clearMemory();
+    }
+
+    int getPutCount() {
+        synchronized (mReturned) {
+            return mReturned.size();
+        }
+    }
+
+    boolean wasReturned(Bitmap bitmap) {
+        synchronized (mReturned) {
+            for (Bitmap returned : mReturned) {
+                if (returned == bitmap) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
+import android.view.View;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/20.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RoundedImageViewTest {
+
+    private static final int SIZE = 100;
+
+    private RoundedImageView mImageView;
+
+    @Before
+    public void setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mImageView = new RoundedImageView(InstrumentationRegistry.getTargetContext());
+                mImageView.setImageDrawable(new ColorDrawable(Color.RED));
+                layout(mImageView);
+            }
+        });
+    }
+
+    private static void layout(View view) {
+        int spec = View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY);
+        view.measure(spec, spec);
+        view.layout(0, 0, SIZE, SIZE);
+    }
+
+    private static Bitmap draw(View view) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        view.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    @Test
+    public void batchedEditsRebuildGeometryOnce() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final int count = mImageView.getGeometryUpdateCount();
+                mImageView.beginUpdate();
+                mImageView.setTopLeftRadii(10);
+                mImageView.setTopRightRadii(12);
+                mImageView.setBottomLeftRadii(14);
+                mImageView.setBottomRightRadii(16);
+                mImageView.setBorderSize(4);
+                mImageView.setBorderOverlay(false);
+                assertEquals(count, mImageView.getGeometryUpdateCount());
+                mImageView.commitUpdate();
+                assertEquals(count + 1, mImageView.getGeometryUpdateCount());
+            }
+        });
+    }
+
+    @Test
+    public void unbatchedEditsRebuildGeometryOnNextDraw() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final int count = mImageView.getGeometryUpdateCount();
+                mImageView.setCornerRadii(8, 8, 8, 8);
+                mImageView.setBorderSize(2);
+                mImageView.setOval(true);
+                assertEquals(count, mImageView.getGeometryUpdateCount());
+                draw(mImageView);
+                assertEquals(count + 1, mImageView.getGeometryUpdateCount());
+                draw(mImageView);
+                assertEquals(count + 1, mImageView.getGeometryUpdateCount());
+                //尺寸不变的重新布局不重新计算
+                layout(mImageView);
+                draw(mImageView);
+                assertEquals(count + 1, mImageView.getGeometryUpdateCount());
+            }
+        });
+    }
+
+    @Test
+    public void renderCacheRebuildsOnlyWhenContentChanges() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mImageView.setCornerRadii(20, 20, 20, 20);
+                mImageView.setBorderSize(4);
+                mImageView.setBorderColor(Color.BLUE);
+                mImageView.setRenderCacheEnabled(true);
+                final Bitmap first = draw(mImageView);
+                final Bitmap second = draw(mImageView);
+                assertEquals(1, mImageView.getRenderCacheBuildCount());
+                assertTrue(first.sameAs(second));
+
+                mImageView.setBorderColor(Color.GREEN);
+                draw(mImageView);
+                assertEquals(2, mImageView.getRenderCacheBuildCount());
+
+                //关闭缓存后的结果和缓存一致
+                final Bitmap cached = draw(mImageView);
+                mImageView.setRenderCacheEnabled(false);
+                assertTrue(cached.sameAs(draw(mImageView)));
+            }
+        });
+    }
+
+    @Test
+    public void viewsShowingSameBitmapShareOneEntry() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+                RoundedImageView other = new RoundedImageView(InstrumentationRegistry.getTargetContext());
+                final int liveCount = SharedBitmapRegistry.getLiveBitmapCount();
+                mImageView.setImageBitmap(bitmap);
+                other.setImageBitmap(bitmap);
+                assertEquals(2, SharedBitmapRegistry.getReferenceCount(bitmap));
+                assertEquals(liveCount + 1, SharedBitmapRegistry.getLiveBitmapCount());
+
+                other.setImageDrawable(null);
+                assertEquals(1, SharedBitmapRegistry.getReferenceCount(bitmap));
+                mImageView.setImageDrawable(null);
+                assertEquals(0, SharedBitmapRegistry.getReferenceCount(bitmap));
+                //调用方的位图只释放引用,不回收
+                assertFalse(bitmap.isRecycled());
+            }
+        });
+    }
+
+    @Test
+    public void groupAvatarIsComposedOnceAndShared() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final int[] colors = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW};
+                final String[] ids = {"a", "b", "c", "d"};
+                final Bitmap[] avatars = new Bitmap[colors.length];
+                for (int i = 0; i < colors.length; i++) {
+                    avatars[i] = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+                    avatars[i].eraseColor(colors[i]);
+                }
+                final int composeCount = GroupAvatarComposer.getComposeCount();
+                mImageView.setGroupLayout(RoundedImageView.GROUP_LAYOUT_SPLIT);
+                mImageView.setGroupAvatars(ids, avatars);
+                RoundedImageView other = new RoundedImageView(InstrumentationRegistry.getTargetContext());
+                other.setGroupLayout(RoundedImageView.GROUP_LAYOUT_SPLIT);
+                layout(other);
+                assertTrue(other.setCachedGroupAvatar(ids));
+                assertEquals(composeCount + 1, GroupAvatarComposer.getComposeCount());
+                final Bitmap composite = ((BitmapDrawable) mImageView.getDrawable()).getBitmap();
+                assertSame(composite, ((BitmapDrawable) other.getDrawable()).getBitmap());
+                //缓存和两个控件各一个引用
+                assertEquals(3, SharedBitmapRegistry.getReferenceCount(composite));
+
+                //分割排列按阅读顺序放在四个象限
+                final Bitmap drawn = draw(mImageView);
+                assertEquals(Color.RED, drawn.getPixel(SIZE / 4, SIZE / 4));
+                assertEquals(Color.GREEN, drawn.getPixel(SIZE * 3 / 4, SIZE / 4));
+                assertEquals(Color.BLUE, drawn.getPixel(SIZE / 4, SIZE * 3 / 4));
+                assertEquals(Color.YELLOW, drawn.getPixel(SIZE * 3 / 4, SIZE * 3 / 4));
+
+                //换成其他图片后释放控件的引用,合成的位图留在缓存中
+                other.setImageDrawable(null);
+                assertEquals(2, SharedBitmapRegistry.getReferenceCount(composite));
+            }
+        });
+    }
+
+    @Test
+    public void groupAvatarWithMissingMembersIsNotShared() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final String id = "missing-" + System.nanoTime();
+                final String[] ids = {id + "a", id + "b"};
+                final Bitmap avatar = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+                final Bitmap recycled = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+                recycled.recycle();
+                mImageView.setGroupAvatars(ids, new Bitmap[]{avatar, null});
+                final Bitmap partial = ((BitmapDrawable) mImageView.getDrawable()).getBitmap();
+                //只有控件自己的引用,其他控件按id取不到
+                assertEquals(1, SharedBitmapRegistry.getReferenceCount(partial));
+                RoundedImageView other = new RoundedImageView(InstrumentationRegistry.getTargetContext());
+                layout(other);
+                assertFalse(other.setCachedGroupAvatar(ids));
+
+                other.setGroupAvatars(ids, new Bitmap[]{avatar, recycled});
+                assertFalse(mImageView.setCachedGroupAvatar(ids));
+
+                //头像都加载完成后的结果才会被共享
+                mImageView.setGroupAvatars(ids, new Bitmap[]{avatar, avatar});
+                assertEquals(0, SharedBitmapRegistry.getReferenceCount(partial));
+                assertTrue(other.setCachedGroupAvatar(ids));
+            }
+        });
+    }
+
+    @Test
+    public void detachReleasesRegistryReferences() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final int baseline = SharedBitmapRegistry.getReferenceCount();
+                final Bitmap[] avatars = new Bitmap[2];
+                for (int i = 0; i < avatars.length; i++) {
+                    avatars[i] = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+                    avatars[i].eraseColor(i == 0 ? Color.RED : Color.GREEN);
+                }
+                RoundedImageView group = new RoundedImageView(InstrumentationRegistry.getTargetContext());
+                //每次运行使用不同的id,合成结果不会已经在缓存中
+                final String id = "detach-" + System.nanoTime();
+                group.setGroupAvatars(new String[]{id + "a", id + "b"}, avatars);
+                layout(group);
+                group.onAttachedToWindow();
+                final Bitmap composite = ((BitmapDrawable) group.getDrawable()).getBitmap();
+                final Bitmap preview = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+                RoundedImageView loading = new RoundedImageView(InstrumentationRegistry.getTargetContext());
+                layout(loading);
+                loading.setPreviewBitmap(preview);
+                loading.onAttachedToWindow();
+                //缓存和控件各一个引用,预览一个引用
+                assertEquals(2, SharedBitmapRegistry.getReferenceCount(composite));
+                assertEquals(1, SharedBitmapRegistry.getReferenceCount(preview));
+
+                group.onDetachedFromWindow();
+                loading.onDetachedFromWindow();
+                assertEquals(1, SharedBitmapRegistry.getReferenceCount(composite));
+                assertEquals(0, SharedBitmapRegistry.getReferenceCount(preview));
+
+                //重新依附时从缓存取回同一个合成结果,预览重新登记
+                group.onAttachedToWindow();
+                loading.onAttachedToWindow();
+                assertSame(composite, ((BitmapDrawable) group.getDrawable()).getBitmap());
+                assertEquals(2, SharedBitmapRegistry.getReferenceCount(composite));
+                assertEquals(1, SharedBitmapRegistry.getReferenceCount(preview));
+
+                //分离后丢弃控件,只剩群头像缓存自己的引用
+                group.onDetachedFromWindow();
+                loading.onDetachedFromWindow();
+                group = null;
+                loading = null;
+                assertEquals(0, SharedBitmapRegistry.getReferenceCount(preview));
+                assertEquals(1, SharedBitmapRegistry.getReferenceCount(composite));
+                assertEquals(baseline + 1, SharedBitmapRegistry.getReferenceCount());
+            }
+        });
+    }
+
+    @Test
+    public void roundedThumbnailReturnsToPoolOnRelease() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final BitmapPool oldPool = RoundedImageView.getBitmapPool();
+                final RecordingBitmapPool pool = new RecordingBitmapPool();
+                RoundedImageView.setBitmapPool(pool);
+                try {
+                    final Bitmap thumbnail = pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+                    mImageView.setRoundedThumbnail(thumbnail);
+                    assertEquals(1, SharedBitmapRegistry.getReferenceCount(thumbnail));
+                    final int putCount = pool.getPutCount();
+                    mImageView.setImageDrawable(null);
+                    assertEquals(putCount + 1, pool.getPutCount());
+                    assertTrue(pool.wasReturned(thumbnail));
+                } finally {
+                    RoundedImageView.setBitmapPool(oldPool);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void roundedThumbnailUsesPendingGeometry() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                draw(mImageView);
+                //修改后没有绘制,保存的像素也要按新的圆角
+                mImageView.setCornerRadii(SIZE / 2f, SIZE / 2f, SIZE / 2f, SIZE / 2f);
+                final Bitmap thumbnail = mImageView.renderRoundedThumbnail();
+                assertNotNull(thumbnail);
+                assertEquals(Color.TRANSPARENT, thumbnail.getPixel(0, 0));
+                assertEquals(Color.RED, thumbnail.getPixel(SIZE / 2, SIZE / 2));
+
+                //批量修改提交前不保存
+                mImageView.beginUpdate();
+                mImageView.setBorderSize(4);
+                assertNull(mImageView.renderRoundedThumbnail());
+                mImageView.commitUpdate();
+                assertNotNull(mImageView.renderRoundedThumbnail());
+            }
+        });
+    }
+
+    @Test
+    public void pressedMaskAndOpaqueBorderDrawEachPixelOnce() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mImageView.setCornerRadii(20, 20, 20, 20);
+                mImageView.setBorderSize(6);
+                mImageView.setBorderOverlay(true);
+                mImageView.setBorderColor(Color.WHITE);
+                mImageView.setMaskColor(0x80000000);
+                mImageView.setPressed(true);
+                CountingCanvas canvas = new CountingCanvas();
+                mImageView.draw(canvas);
+                //图片(包含按下遮罩)和边框各一次
+                assertEquals(2, canvas.drawCount);
+                assertEquals(1, canvas.bitmapShaderDrawCount);
+
+                mImageView.setOval(true);
+                canvas = new CountingCanvas();
+                mImageView.draw(canvas);
+                assertEquals(2, canvas.drawCount);
+            }
+        });
+    }
+
+    /**
+     * 直角、统一圆角、圆形、超过边长一半的圆角和不一致的圆角.
+     */
+    private static final float[][] SHAPE_RADII = {
+            {0, 0, 0, 0}, {20, 20, 20, 20}, {50, 50, 50, 50}, {80, 80, 80, 80}, {10, 30, 0, 40}
+    };
+
+    private void applyShape(float[] radii, int borderSize, boolean borderOverlay) {
+        mImageView.setCornerRadii(radii[0], radii[1], radii[2], radii[3]);
+        mImageView.setBorderSize(borderSize);
+        mImageView.setBorderOverlay(borderOverlay);
+        mImageView.setBorderColor(Color.WHITE);
+    }
+
+    @Test
+    public void primitiveSelectionUsesPathOnlyForMixedRadii() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < SHAPE_RADII.length; i++) {
+                    applyShape(SHAPE_RADII[i], 4, i % 2 == 0);
+                    CountingCanvas canvas = new CountingCanvas();
+                    mImageView.draw(canvas);
+                    assertEquals(2, canvas.drawCount);
+                    assertEquals(i == SHAPE_RADII.length - 1 ? 2 : 0, canvas.pathDrawCount);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void primitiveSelectionMatchesPathPixels() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (float[] radii : SHAPE_RADII) {
+                        for (int borderSize = 0; borderSize <= 6; borderSize += 6) {
+                            for (int overlay = 0; overlay < 2; overlay++) {
+                                applyShape(radii, borderSize, overlay == 1);
+                                RoundedImageView.setPrimitiveSelectionEnabled(true);
+                                Bitmap primitive = draw(mImageView);
+                                RoundedImageView.setPrimitiveSelectionEnabled(false);
+                                Bitmap path = draw(mImageView);
+                                assertPixelsMatch(primitive, path);
+                            }
+                        }
+                    }
+                } finally {
+                    RoundedImageView.setPrimitiveSelectionEnabled(true);
+                }
+            }
+        });
+    }
+
+    /**
+     * 不同图元的抗锯齿实现可能有细微差别,只允许边缘上少量像素有小的偏差.
+     */
+    private static void assertPixelsMatch(Bitmap expected, Bitmap actual) {
+        int differentPixels = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                final int e = expected.getPixel(x, y);
+                final int a = actual.getPixel(x, y);
+                final int diff = Math.max(
+                        Math.max(Math.abs(Color.alpha(e) - Color.alpha(a)), Math.abs(Color.red(e) - Color.red(a))),
+                        Math.max(Math.abs(Color.green(e) - Color.green(a)), Math.abs(Color.blue(e) - Color.blue(a))));
+                if (diff > 2) {
+                    assertTrue("pixel (" + x + ", " + y + ") differs by " + diff, diff <= 32);
+                    differentPixels++;
+                }
+            }
+        }
+        assertTrue(differentPixels + " pixels differ", differentPixels <= SIZE * SIZE / 100);
+    }
+
+    /**
+     * 统计形状的绘制次数.
+     */
+    private static class CountingCanvas extends Canvas {
+
+        int drawCount;
+        int bitmapShaderDrawCount;
+        int pathDrawCount;
+
+        CountingCanvas() {
+            super(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        }
+
+        private void count(Paint paint) {
+            drawCount++;
+            if (paint.getShader() != null) {
+                bitmapShaderDrawCount++;
+            }
+        }
+
+        @Override
+        public void drawPath(Path path, Paint paint) {
+            count(paint);
+            pathDrawCount++;
+            super.drawPath(path, paint);
+        }
+
+        @Override
+        public void drawOval(RectF oval, Paint paint) {
+            count(paint);
+            super.drawOval(oval, paint);
+        }
+
+        @Override
+        public void drawRect(RectF rect, Paint paint) {
+            count(paint);
+            super.drawRect(rect, paint);
+        }
+
+        @Override
+        public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+            count(paint);
+            super.drawRoundRect(rect, rx, ry, paint);
+        }
+    }
+}
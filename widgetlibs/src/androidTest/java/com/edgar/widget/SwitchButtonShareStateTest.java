@@ -0,0 +1,92 @@
+package com.edgar.widget;
+
+import android.content.Context;
+import android.util.Log;
+import android.widget.LinearLayout;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/28.
+ * 对比共享和不共享ConstantState时创建200个开关的耗时和GC后的Java堆增量,结果输出到logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SwitchButtonShareStateTest {
+
+    private static final String TAG = "SwitchShareState";
+    private static final int SWITCH_COUNT = 200;
+
+    @After
+    public void tearDown() {
+        SwitchButton.setShareDrawableState(true);
+    }
+
+    @Test
+    public void sharedStateIsReusedAcrossSwitches() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = InstrumentationRegistry.getTargetContext();
+                SwitchButton.setShareDrawableState(true);
+                SwitchButton first = new SwitchButton(context);
+                SwitchButton second = new SwitchButton(context);
+                assertSame(first.getTrackDrawable().getConstantState(), second.getTrackDrawable().getConstantState());
+
+                SwitchButton.setShareDrawableState(false);
+                first = new SwitchButton(context);
+                second = new SwitchButton(context);
+                assertNotSame(first.getTrackDrawable().getConstantState(), second.getTrackDrawable().getConstantState());
+            }
+        });
+    }
+
+    @Test
+    public void compareInflateCost() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                //先各创建一次,排除类加载和资源首次解析的耗时
+                measure(false);
+                measure(true);
+                final long[] unshared = measure(false);
+                final long[] shared = measure(true);
+                Log.i(TAG, String.format(Locale.US, "%d switches, unshared: %.2f ms %d KB, shared: %.2f ms %d KB",
+                        SWITCH_COUNT, unshared[0] / 1000000f, unshared[1] / 1024,
+                        shared[0] / 1000000f, shared[1] / 1024));
+            }
+        });
+    }
+
+    /**
+     * @return 创建耗时(纳秒)和Java堆增量(字节)
+     */
+    private static long[] measure(boolean share) {
+        SwitchButton.setShareDrawableState(share);
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final LinearLayout container = new LinearLayout(context);
+        final long memoryBefore = getUsedMemory();
+        final long start = System.nanoTime();
+        for (int i = 0; i < SWITCH_COUNT; i++) {
+            container.addView(new SwitchButton(context));
+        }
+        final long time = System.nanoTime() - start;
+        final long memory = getUsedMemory() - memoryBefore;
+        assertEquals(SWITCH_COUNT, container.getChildCount());
+        return new long[]{time, memory};
+    }
+
+    private static long getUsedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,91 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import androidx.annotation.Nullable;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/30.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TiledImageLoaderPoolTest {
+
+    private final RecordingBitmapPool mPool = new RecordingBitmapPool();
+    private BitmapPool mOldPool;
+    private File mFile;
+    private TiledImageLoader mLoader;
+
+    @Before
+    public void setUp() throws IOException {
+        mOldPool = RoundedImageView.getBitmapPool();
+        RoundedImageView.setBitmapPool(mPool);
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "tiled_pool_test.png");
+        Bitmap image = Bitmap.createBitmap(1024, 768, Bitmap.Config.ARGB_8888);
+        image.eraseColor(Color.RED);
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            image.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        RoundedImageView.setBitmapPool(mOldPool);
+        mFile.delete();
+    }
+
+    @Test
+    public void compositeReturnsToPoolOnResizeAndRelease() throws InterruptedException {
+        final CountDownLatch composed = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mLoader = new TiledImageLoader(BitmapDecoder.fromFile(mFile), new TiledImageLoader.Listener() {
+                    @Override
+                    public void onCompositeChanged(@Nullable Bitmap composite) {
+                        if (composite != null) {
+                            composed.countDown();
+                        }
+                    }
+                });
+                mLoader.setViewport(100, 100);
+            }
+        });
+        assertTrue(composed.await(5, TimeUnit.SECONDS));
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap first = mLoader.getComposite();
+                assertNotNull(first);
+                mLoader.setViewport(120, 80);
+                assertTrue(mPool.wasReturned(first));
+
+                final Bitmap second = mLoader.getComposite();
+                assertNotNull(second);
+                assertEquals(120, second.getWidth());
+                mLoader.release();
+                assertTrue(mPool.wasReturned(second));
+                assertNull(mLoader.getComposite());
+                assertEquals(0, mLoader.getTileCount());
+            }
+        });
+    }
+}
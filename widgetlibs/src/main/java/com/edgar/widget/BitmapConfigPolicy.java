@@ -0,0 +1,153 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+/**
+ * Created by Edgar on 2019/08/19.
+ * 光栅化位图的Config选择策略,以及相对ARGB_8888节省内存的统计.
+ * HARDWARE位图不能直接绘制,先绘制到ARGB_8888的位图再上传.
+ */
+public final class BitmapConfigPolicy {
+
+    /**
+     * 不透明的Drawable和JPEG使用RGB_565,其他使用ARGB_8888.渐变和照片可能出现色带,需要主动开启.
+     */
+    public static final int AUTO = 0;
+    public static final int ARGB_8888 = 1;
+    /**
+     * 强制使用RGB_565,Drawable的透明区域会变成黑色.
+     */
+    public static final int RGB_565 = 2;
+    /**
+     * API 28以上并且开启硬件加速时使用HARDWARE,像素内存不占用Java堆;不满足条件时使用ARGB_8888.
+     */
+    public static final int HARDWARE = 3;
+
+    private static final int ARGB_8888_BYTES_PER_PIXEL = 4;
+
+    //默认不降低画质,RGB_565需要通过属性或setDefaultPolicy主动开启
+    private static int sDefaultPolicy = ARGB_8888;
+    private static long sSavedBytes;
+    private static int sRgb565Count;
+    private static int sHardwareCount;
+
+    private BitmapConfigPolicy() {}
+
+    /**
+     * 设置没有通过属性或者{@link RoundedImageView#setBitmapConfig(int)}指定时使用的策略,默认{@link #ARGB_8888}.
+     */
+    public static synchronized void setDefaultPolicy(int policy) {
+        checkPolicy(policy);
+        sDefaultPolicy = policy;
+    }
+
+    public static synchronized int getDefaultPolicy() {
+        return sDefaultPolicy;
+    }
+
+    static void checkPolicy(int policy) {
+        if (policy < AUTO || policy > HARDWARE) {
+            throw new IllegalArgumentException("Unknown bitmap config policy: " + policy);
+        }
+    }
+
+    /**
+     * @param hardwareAllowed 控件是否能绘制HARDWARE位图(硬件加速、非软件层、非动画内容)
+     */
+    static Bitmap.Config resolve(int policy, Drawable drawable, boolean hardwareAllowed) {
+        return resolve(policy, drawable.getOpacity() == PixelFormat.OPAQUE, hardwareAllowed);
+    }
+
+    /**
+     * 解码图片时使用,JPEG没有透明通道,按不透明处理.
+     */
+    static Bitmap.Config resolve(int policy, String mimeType, boolean hardwareAllowed) {
+        return resolve(policy, "image/jpeg".equals(mimeType), hardwareAllowed);
+    }
+
+    private static Bitmap.Config resolve(int policy, boolean opaque, boolean hardwareAllowed) {
+        switch (policy) {
+            case ARGB_8888:
+                return Bitmap.Config.ARGB_8888;
+            case RGB_565:
+                return Bitmap.Config.RGB_565;
+            case HARDWARE:
+                //BitmapShader在API 28以上才支持HARDWARE位图
+                if (hardwareAllowed && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    return Bitmap.Config.HARDWARE;
+                }
+                return Bitmap.Config.ARGB_8888;
+            case AUTO:
+                return opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            default:
+                return Bitmap.Config.ARGB_8888;
+        }
+    }
+
+    static boolean isHardware(Bitmap.Config config) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+
+    static boolean isHardware(Bitmap bitmap) {
+        return bitmap != null && isHardware(bitmap.getConfig());
+    }
+
+    /**
+     * 绘制Drawable时使用的Config,HARDWARE位图只能先绘制到ARGB_8888.
+     */
+    static Bitmap.Config getDrawConfig(Bitmap.Config config) {
+        return isHardware(config) ? Bitmap.Config.ARGB_8888 : config;
+    }
+
+    /**
+     * 把绘制好的位图转换成目标Config并记录节省的内存,转换后绘制用的位图归还到复用池.
+     * 转换失败时返回原来的位图.
+     */
+    static Bitmap toTargetConfig(Bitmap drawn, Bitmap.Config config) {
+        if (isHardware(config)) {
+            Bitmap hardware = drawn.copy(config, false);
+            if (hardware != null) {
+                RoundedImageView.getBitmapPool().put(drawn);
+                record(hardware);
+                return hardware;
+            }
+        }
+        record(drawn);
+        return drawn;
+    }
+
+    private static synchronized void record(Bitmap bitmap) {
+        final long argbBytes = (long) bitmap.getWidth() * bitmap.getHeight() * ARGB_8888_BYTES_PER_PIXEL;
+        if (isHardware(bitmap)) {
+            sHardwareCount++;
+            sSavedBytes += argbBytes;
+        } else if (bitmap.getConfig() == Bitmap.Config.RGB_565) {
+            sRgb565Count++;
+            sSavedBytes += argbBytes - LruBitmapPool.getBitmapByteSize(bitmap);
+        }
+    }
+
+    /**
+     * 累计相对ARGB_8888少占用的堆内存字节数,HARDWARE位图按全部像素内存计算.
+     */
+    public static synchronized long getSavedBytes() {
+        return sSavedBytes;
+    }
+
+    public static synchronized int getRgb565Count() {
+        return sRgb565Count;
+    }
+
+    public static synchronized int getHardwareCount() {
+        return sHardwareCount;
+    }
+
+    public static synchronized void resetStats() {
+        sSavedBytes = 0;
+        sRgb565Count = 0;
+        sHardwareCount = 0;
+    }
+}
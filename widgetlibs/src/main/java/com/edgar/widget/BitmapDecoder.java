@@ -0,0 +1,430 @@
+package com.edgar.widget;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Created by Edgar on 2019/08/22.
+ * 在后台线程按目标尺寸解码图片:先用inSampleSize按2的幂缩小,再缩放到刚好覆盖目标尺寸(CENTER_CROP).
+ * API 19以上通过inBitmap复用{@link RoundedImageView#getBitmapPool()}中的位图.
+ * 同一来源、同一目标尺寸的并发请求只解码一次,结果分发给所有请求方;
+ * 结果以内容key登记到{@link SharedBitmapRegistry},仍在显示时后来的请求直接复用.
+ */
+final class BitmapDecoder {
+
+    private static final String TAG = "BitmapDecoder";
+    //缩放后能节省超过这个比例的像素时才做最终缩放
+    private static final float SCALE_THRESHOLD = 0.8f;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    //正在解码的请求,只在主线程访问
+    private static final HashMap<String, Job> sInFlight = new HashMap<>();
+
+    interface Callback {
+        /**
+         * 回调期间解码器持有位图的引用,需要继续使用时通过{@link SharedBitmapRegistry}登记自己的引用.
+         * @param bitmap 解码失败时为null
+         */
+        void onDecoded(Task task, @Nullable Bitmap bitmap);
+    }
+
+    private BitmapDecoder() {}
+
+    static Source fromFile(File file) {
+        return new FileSource(file);
+    }
+
+    static Source fromUri(Context context, Uri uri) {
+        return new UriSource(context.getApplicationContext().getContentResolver(), uri);
+    }
+
+    /**
+     * @param sourceId 用于合并相同来源的请求,为null时不合并
+     */
+    static Source fromStream(InputStream stream, @Nullable String sourceId) {
+        return new StreamSource(stream, sourceId);
+    }
+
+    @MainThread
+    static Task submit(Source source, int width, int height, int policy, boolean hardwareAllowed,
+                       Callback callback) {
+        String key = null;
+        Job job = null;
+        if (source.key != null) {
+            key = source.key + '|' + width + 'x' + height + '|' + policy + '|' + hardwareAllowed;
+            job = sInFlight.get(key);
+        }
+        if (job == null) {
+            job = new Job(key, source, width, height, policy, hardwareAllowed);
+            final Bitmap live = key != null ? SharedBitmapRegistry.acquire(key) : null;
+            if (live != null) {
+                //其他控件仍在显示同一张图片,下一个消息直接分发
+                job.mResult = live;
+                DrawableRasterizer.getMainHandler().post(job.mDeliver);
+            } else {
+                if (key != null) {
+                    sInFlight.put(key, job);
+                }
+                DrawableRasterizer.getExecutor().execute(job);
+            }
+        }
+        Task task = new Task(job, callback);
+        job.tasks.add(task);
+        return task;
+    }
+
+    /**
+     * 不小于目标尺寸的最大的2的幂采样率.
+     */
+    @VisibleForTesting
+    static int computeSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * CENTER_CROP的缩放比例,大于等于{@link #SCALE_THRESHOLD}时不缩放,返回1.
+     */
+    @VisibleForTesting
+    static float computeScale(int width, int height, int targetWidth, int targetHeight) {
+        float scale = Math.max((float) targetWidth / width, (float) targetHeight / height);
+        return scale < SCALE_THRESHOLD ? scale : 1f;
+    }
+
+    static final class Task {
+        private final Job mJob;
+        private final Callback mCallback;
+
+        Task(Job job, Callback callback) {
+            mJob = job;
+            mCallback = callback;
+        }
+
+        /**
+         * 取消请求,没有其他请求方时取消解码.
+         */
+        @MainThread
+        void cancel() {
+            mJob.tasks.remove(this);
+            if (mJob.tasks.isEmpty()) {
+                mJob.cancel();
+            }
+        }
+    }
+
+    private static final class Job implements Runnable {
+        final ArrayList<Task> tasks = new ArrayList<>(1);
+        private final String mKey;
+        private final Source mSource;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mPolicy;
+        private final boolean mHardwareAllowed;
+        private volatile boolean mCancelled;
+        private Bitmap mResult;
+        private final Runnable mDeliver = new Runnable() {
+            @Override
+            public void run() {
+                deliver();
+            }
+        };
+
+        Job(String key, Source source, int width, int height, int policy, boolean hardwareAllowed) {
+            mKey = key;
+            mSource = source;
+            mWidth = width;
+            mHeight = height;
+            mPolicy = policy;
+            mHardwareAllowed = hardwareAllowed;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            try {
+                mResult = decode();
+                if (mResult != null) {
+                    mSource.onDecoded();
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "decode failed: " + mSource.key, e);
+            } catch (OutOfMemoryError e) {
+                Log.w(TAG, "decode out of memory: " + mSource.key, e);
+            }
+            DrawableRasterizer.getMainHandler().post(mDeliver);
+        }
+
+        private Bitmap decode() throws IOException {
+            final BitmapPool pool = RoundedImageView.getBitmapPool();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            mSource.decode(options);
+            final int width = options.outWidth;
+            final int height = options.outHeight;
+            if (width <= 0 || height <= 0 || mCancelled) {
+                return null;
+            }
+            final int sampleSize = computeSampleSize(width, height, mWidth, mHeight);
+            final Bitmap.Config config = BitmapConfigPolicy.resolve(mPolicy, options.outMimeType, mHardwareAllowed);
+            final Bitmap.Config drawConfig = BitmapConfigPolicy.getDrawConfig(config);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = drawConfig;
+            options.inScaled = false;
+            options.inMutable = true;
+            Bitmap reuse = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                //不同格式的采样取整方式不同,向上取整保证复用位图足够大
+                reuse = pool.get((width + sampleSize - 1) / sampleSize,
+                        (height + sampleSize - 1) / sampleSize, drawConfig);
+                options.inBitmap = reuse;
+            }
+            Bitmap bitmap;
+            try {
+                bitmap = mSource.decode(options);
+            } catch (IllegalArgumentException e) {
+                //格式不支持复用
+                options.inBitmap = null;
+                bitmap = mSource.decode(options);
+            }
+            if (reuse != null && bitmap != reuse) {
+                pool.put(reuse);
+            }
+            if (bitmap == null) {
+                return null;
+            }
+            bitmap = scaleToTarget(bitmap, drawConfig);
+            return BitmapConfigPolicy.toTargetConfig(bitmap, config);
+        }
+
+        private Bitmap scaleToTarget(Bitmap bitmap, Bitmap.Config config) {
+            final int width = bitmap.getWidth();
+            final int height = bitmap.getHeight();
+            final float scale = computeScale(width, height, mWidth, mHeight);
+            if (scale >= 1f) {
+                return bitmap;
+            }
+            final BitmapPool pool = RoundedImageView.getBitmapPool();
+            Bitmap scaled = pool.get(Math.max(mWidth, Math.round(width * scale)),
+                    Math.max(mHeight, Math.round(height * scale)), config);
+            Matrix matrix = new Matrix();
+            matrix.setScale((float) scaled.getWidth() / width, (float) scaled.getHeight() / height);
+            new Canvas(scaled).drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            pool.put(bitmap);
+            return scaled;
+        }
+
+        @MainThread
+        void cancel() {
+            mCancelled = true;
+            DrawableRasterizer.getExecutor().remove(this);
+            removeInFlight();
+        }
+
+        private void removeInFlight() {
+            if (mKey != null && sInFlight.get(mKey) == this) {
+                sInFlight.remove(mKey);
+            }
+        }
+
+        private void deliver() {
+            final Bitmap bitmap = mResult;
+            mResult = null;
+            removeInFlight();
+            if (bitmap == null) {
+                dispatch(null);
+                return;
+            }
+            //复用的位图在submit中已经登记了引用,新解码的位图在这里登记,没有请求方引用时归还到复用池
+            if (SharedBitmapRegistry.getReferenceCount(bitmap) == 0) {
+                SharedBitmapRegistry.acquire(bitmap, mKey, bitmap.isMutable());
+            }
+            dispatch(bitmap);
+            SharedBitmapRegistry.release(bitmap);
+        }
+
+        private void dispatch(Bitmap bitmap) {
+            if (mCancelled || tasks.isEmpty()) {
+                return;
+            }
+            //回调中可能取消其他请求
+            Task[] targets = tasks.toArray(new Task[tasks.size()]);
+            tasks.clear();
+            for (Task task : targets) {
+                task.mCallback.onDecoded(task, bitmap);
+            }
+        }
+    }
+
+    abstract static class Source {
+        final String key;
+
+        Source(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 在后台线程调用,读取尺寸和解码各调用一次.
+         */
+        abstract Bitmap decode(BitmapFactory.Options options) throws IOException;
+
+        /**
+         * 在后台线程调用,用于{@link TiledImageLoader}分块解码.
+         */
+        abstract BitmapRegionDecoder newRegionDecoder() throws IOException;
+
+        /**
+         * 解码成功后在后台线程调用,只能读取一次的来源在这里释放缓存的数据.
+         */
+        void onDecoded() {
+        }
+
+        /**
+         * 控件重新依附窗口时能否再次解码.
+         */
+        boolean isReopenable() {
+            return true;
+        }
+    }
+
+    private static final class FileSource extends Source {
+        private final File mFile;
+
+        FileSource(File file) {
+            super("file:" + file.getAbsolutePath());
+            mFile = file;
+        }
+
+        @Override
+        Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeFile(mFile.getPath(), options);
+        }
+
+        @Override
+        BitmapRegionDecoder newRegionDecoder() throws IOException {
+            return BitmapRegionDecoder.newInstance(mFile.getPath(), false);
+        }
+    }
+
+    private static final class UriSource extends Source {
+        private final ContentResolver mResolver;
+        private final Uri mUri;
+
+        UriSource(ContentResolver resolver, Uri uri) {
+            super(uri.toString());
+            mResolver = resolver;
+            mUri = uri;
+        }
+
+        @Override
+        Bitmap decode(BitmapFactory.Options options) throws IOException {
+            InputStream in = open();
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        BitmapRegionDecoder newRegionDecoder() throws IOException {
+            InputStream in = open();
+            try {
+                return BitmapRegionDecoder.newInstance(in, false);
+            } finally {
+                in.close();
+            }
+        }
+
+        private InputStream open() throws IOException {
+            InputStream in = mResolver.openInputStream(mUri);
+            if (in == null) {
+                throw new IOException("Unable to open " + mUri);
+            }
+            return in;
+        }
+    }
+
+    /**
+     * 数据流只能读取一次,先读到内存中再解码.
+     */
+    private static final class StreamSource extends Source {
+        private InputStream mStream;
+        private byte[] mData;
+
+        StreamSource(InputStream stream, String sourceId) {
+            super(sourceId == null ? null : "stream:" + sourceId);
+            mStream = stream;
+        }
+
+        @Override
+        Bitmap decode(BitmapFactory.Options options) throws IOException {
+            byte[] data = read();
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        @Override
+        BitmapRegionDecoder newRegionDecoder() throws IOException {
+            byte[] data = read();
+            return BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+        }
+
+        /**
+         * 数据流只能读取一次,解码成功后不再保留压缩数据,控件显示期间不占用堆内存.
+         */
+        @Override
+        synchronized void onDecoded() {
+            mData = null;
+        }
+
+        @Override
+        boolean isReopenable() {
+            return false;
+        }
+
+        private synchronized byte[] read() throws IOException {
+            if (mData == null) {
+                if (mStream == null) {
+                    throw new IOException("stream already decoded: " + key);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try {
+                    int count;
+                    while ((count = mStream.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    mStream.close();
+                }
+                mData = out.toByteArray();
+                mStream = null;
+            }
+            return mData;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import androidx.annotation.NonNull;
+
+/**
+ * Created by Edgar on 2019/08/14.
+ * 位图复用池,{@link RoundedImageView}光栅化Drawable时从池中取位图,分离窗口时归还.
+ * 可以通过{@link RoundedImageView#setBitmapPool(BitmapPool)}替换成自定义实现.
+ */
+public interface BitmapPool {
+
+    /**
+     * 返回一个可修改、像素已清空的位图,池中没有合适的位图时创建新的位图.
+     */
+    @NonNull
+    Bitmap get(int width, int height, @NonNull Bitmap.Config config);
+
+    /**
+     * 归还位图,调用之后不能再使用该位图.
+     */
+    void put(Bitmap bitmap);
+
+    /**
+     * 清空池中所有位图.
+     */
+    void clearMemory();
+}
@@ -0,0 +1,185 @@
+package com.edgar.widget;
+
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Edgar on 2019/08/25.
+ * 连续曲率(超椭圆)圆角.
+ * 每个圆角由两段三次贝塞尔曲线和中间的一段圆弧组成,smoothing越大曲线在边上延伸越长,0时就是普通圆角.
+ * 曲线按半径为1预先细分成折线模板,同一个平滑度和细分精度只计算一次,使用时按半径缩放、按角旋转,
+ * 不需要三角函数,也不分配内存.
+ */
+final class ContinuousCorner {
+
+    static final float DEFAULT_SMOOTHING = 0.6f;
+    //平滑度按0.01量化,向下取整,保证曲线不会超出可用的边长
+    private static final int SMOOTHING_STEPS = 100;
+    private static final int MAX_TEMPLATES = 64;
+    private static final double SQRT_2 = Math.sqrt(2);
+    //按左上、右上、右下、左下顺时针,相对右上角模板旋转的四分之一圈数
+    private static final int[] QUARTER_TURNS = {3, 0, 1, 2};
+    private static final int[] COS = {1, 0, -1, 0};
+    private static final int[] SIN = {0, 1, 0, -1};
+
+    private static final LinkedHashMap<Integer, float[]> sTemplates =
+            new LinkedHashMap<Integer, float[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, float[]> eldest) {
+                    return size() > MAX_TEMPLATES;
+                }
+            };
+    private static int sBuildCount;
+
+    private ContinuousCorner() {}
+
+    /**
+     * 按连续曲率圆角添加一个圆角矩形,圆角不超过短边的一半,曲线延伸不下时减小平滑度.
+     * @param radii 和{@link Path#addRoundRect(RectF, float[], Path.Direction)}相同的8个值
+     */
+    static void addRoundRect(Path path, RectF rect, float[] radii, float smoothing) {
+        final float maxExtent = Math.min(rect.width(), rect.height()) / 2f;
+        boolean first = true;
+        for (int i = 0; i < RoundedGeometry.DIRECTION.length; i++) {
+            final float vertexX = i == 0 || i == 3 ? rect.left : rect.right;
+            final float vertexY = i < 2 ? rect.top : rect.bottom;
+            final float radius = Math.min(radii[RoundedGeometry.DIRECTION[i]], maxExtent);
+            if (radius <= 0) {
+                if (first) {
+                    path.moveTo(vertexX, vertexY);
+                    first = false;
+                } else {
+                    path.lineTo(vertexX, vertexY);
+                }
+                continue;
+            }
+            final float[] template = getTemplate(effectiveSmoothing(radius, smoothing, maxExtent),
+                    segmentsFor(radius));
+            final int cos = COS[QUARTER_TURNS[i]];
+            final int sin = SIN[QUARTER_TURNS[i]];
+            for (int j = 0; j < template.length; j += 2) {
+                final float x = template[j] * radius;
+                final float y = template[j + 1] * radius;
+                final float px = vertexX + cos * x - sin * y;
+                final float py = vertexY + sin * x + cos * y;
+                if (first) {
+                    path.moveTo(px, py);
+                    first = false;
+                } else {
+                    path.lineTo(px, py);
+                }
+            }
+        }
+        path.close();
+    }
+
+    /**
+     * 曲线在每条边上延伸(1 + smoothing) * radius,超过maxExtent时减小平滑度.
+     */
+    static float effectiveSmoothing(float radius, float smoothing, float maxExtent) {
+        if (radius <= 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(smoothing, maxExtent / radius - 1));
+    }
+
+    /**
+     * 每段曲线的细分数,半径越大需要越多的点才能保持平滑.
+     */
+    static int segmentsFor(float radius) {
+        if (radius < 8) {
+            return 2;
+        } else if (radius < 24) {
+            return 4;
+        } else if (radius < 64) {
+            return 8;
+        }
+        return 16;
+    }
+
+    /**
+     * 获取半径为1的右上角模板,以矩形的角为原点,从(-p, 0)顺时针到(0, p),p = 1 + smoothing.
+     */
+    static float[] getTemplate(float smoothing, int segments) {
+        final int step = (int) (Math.min(1f, Math.max(0f, smoothing)) * SMOOTHING_STEPS);
+        final Integer key = step << 5 | segments;
+        synchronized (sTemplates) {
+            float[] template = sTemplates.get(key);
+            if (template == null) {
+                template = buildTemplate(step / (float) SMOOTHING_STEPS, segments);
+                sTemplates.put(key, template);
+                sBuildCount++;
+            }
+            return template;
+        }
+    }
+
+    static int getTemplateCount() {
+        synchronized (sTemplates) {
+            return sTemplates.size();
+        }
+    }
+
+    static int getBuildCount() {
+        synchronized (sTemplates) {
+            return sBuildCount;
+        }
+    }
+
+    static float[] buildTemplate(float smoothing, int segments) {
+        final double arcMeasure = Math.toRadians(90 * (1 - smoothing));
+        final double arcLength = Math.sin(arcMeasure / 2) * SQRT_2;
+        final double alpha = (Math.PI / 2 - arcMeasure) / 2;
+        final double c = Math.tan(alpha / 2) * Math.cos(Math.toRadians(45 * smoothing));
+        final double d = c * Math.tan(Math.toRadians(45 * smoothing));
+        final double p = 1 + smoothing;
+        final double b = (p - arcLength - c - d) / 3;
+        final double a = 2 * b;
+        final float[] points = new float[(segments * 3 + 1) * 2];
+        points[0] = (float) -p;
+        points[1] = 0;
+        //第一段曲线从边上过渡到圆弧
+        final double arcStartX = -p + a + b + c;
+        final double arcStartY = d;
+        cubic(points, 1, segments, -p, 0, -p + a, 0, -p + a + b, 0, arcStartX, arcStartY);
+        //圆弧关于对角线对称,圆心在弦的垂直平分线上靠内侧
+        final double arcEndX = arcStartX + arcLength;
+        final double arcEndY = arcStartY + arcLength;
+        final double halfChord = arcLength / SQRT_2;
+        final double h = Math.sqrt(Math.max(0, 1 - halfChord * halfChord)) / SQRT_2;
+        final double centerX = (arcStartX + arcEndX) / 2 - h;
+        final double centerY = (arcStartY + arcEndY) / 2 + h;
+        final double startAngle = Math.atan2(arcStartY - centerY, arcStartX - centerX);
+        for (int i = 1; i <= segments; i++) {
+            final double angle = startAngle + arcMeasure * i / segments;
+            final int index = (segments + i) * 2;
+            points[index] = (float) (centerX + Math.cos(angle));
+            points[index + 1] = (float) (centerY + Math.sin(angle));
+        }
+        //第二段曲线和第一段关于对角线对称
+        cubic(points, segments * 2 + 1, segments, arcEndX, arcEndY, arcEndX + d, arcEndY + c,
+                arcEndX + d, arcEndY + b + c, 0, p);
+        final int last = points.length - 2;
+        points[last] = 0;
+        points[last + 1] = (float) p;
+        return points;
+    }
+
+    private static void cubic(float[] points, int start, int segments, double x0, double y0,
+                              double x1, double y1, double x2, double y2, double x3, double y3) {
+        for (int i = 1; i <= segments; i++) {
+            final double t = i / (double) segments;
+            final double u = 1 - t;
+            final double w0 = u * u * u;
+            final double w1 = 3 * u * u * t;
+            final double w2 = 3 * u * t * t;
+            final double w3 = t * t * t;
+            final int index = (start + i - 1) * 2;
+            points[index] = (float) (w0 * x0 + w1 * x1 + w2 * x2 + w3 * x3);
+            points[index + 1] = (float) (w0 * y0 + w1 * y1 + w2 * y2 + w3 * y3);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.edgar.widget;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Edgar on 2019/08/16.
+ * 在后台线程把Drawable光栅化成位图,结果在主线程回调.
+ * 后台绘制的是通过{@link Drawable.ConstantState}复制出来的Drawable,不会和主线程共享状态.
+ */
+final class DrawableRasterizer {
+
+    private static final String TAG = "DrawableRasterizer";
+    private static final int MAX_THREAD_COUNT = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor sExecutor;
+    private static Handler sMainHandler;
+
+    interface Callback {
+        /**
+         * @param bitmap 光栅化失败时为null
+         */
+        void onRasterized(Task task, @Nullable Bitmap bitmap);
+    }
+
+    private DrawableRasterizer() {}
+
+    /**
+     * 光栅化和{@link BitmapDecoder}解码共用的后台线程.
+     */
+    static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(MAX_THREAD_COUNT, MAX_THREAD_COUNT,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new RasterThreadFactory());
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+
+    /**
+     * 提交光栅化任务,Drawable不支持复制时返回null,由调用方同步光栅化.
+     */
+    @MainThread
+    @Nullable
+    static Task submit(Resources res, Drawable source, int width, int height,
+                       Bitmap.Config config, Callback callback) {
+        Drawable.ConstantState state = source.getConstantState();
+        if (state == null) {
+            return null;
+        }
+        Drawable drawable = state.newDrawable(res).mutate();
+        drawable.setState(source.getState());
+        drawable.setLevel(source.getLevel());
+        Task task = new Task(source, drawable, width, height, config, callback);
+        getExecutor().execute(task);
+        return task;
+    }
+
+    static final class Task implements Runnable {
+        final Drawable source;
+        final int width;
+        final int height;
+        private final Drawable mDrawable;
+        private final Bitmap.Config mConfig;
+        private final Callback mCallback;
+        private volatile boolean mCancelled;
+        private Bitmap mResult;
+        private final Runnable mDeliver = new Runnable() {
+            @Override
+            public void run() {
+                deliver();
+            }
+        };
+
+        Task(Drawable source, Drawable drawable, int width, int height, Bitmap.Config config, Callback callback) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+            mDrawable = drawable;
+            mConfig = config;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            Bitmap bitmap = null;
+            try {
+                bitmap = RoundedImageView.getBitmapPool().get(width, height,
+                        BitmapConfigPolicy.getDrawConfig(mConfig));
+                mDrawable.setBounds(0, 0, width, height);
+                mDrawable.draw(new Canvas(bitmap));
+                //HARDWARE位图的上传也在后台线程完成
+                mResult = BitmapConfigPolicy.toTargetConfig(bitmap, mConfig);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "rasterize failed", e);
+                putBack(bitmap);
+            } catch (OutOfMemoryError e) {
+                Log.w(TAG, "rasterize out of memory", e);
+                putBack(bitmap);
+            }
+            //失败时也要回调null,调用方才能清除任务并在下次更新时重试
+            getMainHandler().post(mDeliver);
+        }
+
+        private static void putBack(Bitmap bitmap) {
+            if (bitmap != null) {
+                RoundedImageView.getBitmapPool().put(bitmap);
+            }
+        }
+
+        private void deliver() {
+            Bitmap bitmap = mResult;
+            mResult = null;
+            if (mCancelled) {
+                putBack(bitmap);
+            } else {
+                mCallback.onRasterized(this, bitmap);
+            }
+        }
+
+        /**
+         * 取消任务,已经生成的位图会在主线程归还到复用池.
+         */
+        @MainThread
+        void cancel() {
+            mCancelled = true;
+            getExecutor().remove(this);
+        }
+    }
+
+    private static final class RasterThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, TAG + "#" + mCount.getAndIncrement());
+        }
+    }
+}
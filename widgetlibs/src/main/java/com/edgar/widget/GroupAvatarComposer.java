@@ -0,0 +1,173 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Edgar on 2019/08/26.
+ * 把多个成员头像合成到一张位图上,由{@link RoundedImageView}统一做圆角/圆形处理,一个控件、一个Shader.
+ * 合成结果按成员id、尺寸、排列方式缓存,列表中不同的行和重新绑定时直接复用,不会重复合成.
+ * 缓存持有{@link SharedBitmapRegistry}中的一个引用,淘汰后控件不再使用时位图归还到复用池.
+ * 有头像缺失的结果只给当前控件使用,不缓存也不按key登记,头像加载完成后重新合成的结果才会被共享.
+ */
+final class GroupAvatarComposer {
+
+    static final int LAYOUT_GRID = 0;
+    static final int LAYOUT_SPLIT = 1;
+    static final int MAX_GRID_COUNT = 9;
+    static final int MAX_SPLIT_COUNT = 4;
+    private static final int MAX_ENTRIES = 32;
+    //间隔相对短边的比例
+    private static final float GRID_GAP_RATIO = 1 / 24f;
+    private static final float SPLIT_GAP_RATIO = 1 / 40f;
+
+    private static final LinkedHashMap<String, Bitmap> sComposites =
+            new LinkedHashMap<String, Bitmap>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Bitmap> eldest) {
+                    if (size() > MAX_ENTRIES) {
+                        SharedBitmapRegistry.release(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private static int sComposeCount;
+
+    private GroupAvatarComposer() {}
+
+    static String createKey(String[] memberIds, int width, int height, int layout, int backgroundColor) {
+        StringBuilder sb = new StringBuilder(memberIds.length * 16 + 32);
+        sb.append(layout).append('|').append(width).append('x').append(height)
+                .append('|').append(Integer.toHexString(backgroundColor));
+        for (String id : memberIds) {
+            //用id长度分隔,id中包含任何字符都不会冲突
+            sb.append('|').append(id.length()).append(':').append(id);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 查找已经合成的位图,缓存淘汰后仍在被控件显示的位图也能找回.
+     */
+    @MainThread
+    @Nullable
+    static Bitmap get(String key) {
+        Bitmap composite = sComposites.get(key);
+        if (composite != null) {
+            return composite;
+        }
+        //registry按key增加的引用归缓存所有
+        composite = SharedBitmapRegistry.acquire(key);
+        if (composite != null) {
+            sComposites.put(key, composite);
+        }
+        return composite;
+    }
+
+    /**
+     * 合成到复用池的位图上,头像为null的位置只显示背景色.所有头像都有效时加入缓存.
+     * 返回的位图带有调用方的一个引用,控件显示后需要{@link SharedBitmapRegistry#release(Bitmap)}.
+     */
+    @MainThread
+    static Bitmap compose(String key, Bitmap[] avatars, int width, int height, int layout, int backgroundColor) {
+        final Bitmap composite = RoundedImageView.getBitmapPool().get(width, height, Bitmap.Config.ARGB_8888);
+        composite.eraseColor(backgroundColor);
+        final Canvas canvas = new Canvas(composite);
+        final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+        final Rect src = new Rect();
+        final RectF dst = new RectF();
+        final int count = Math.min(avatars.length, layout == LAYOUT_SPLIT ? MAX_SPLIT_COUNT : MAX_GRID_COUNT);
+        boolean complete = true;
+        for (int i = 0; i < count; i++) {
+            Bitmap avatar = avatars[i];
+            if (avatar == null || avatar.isRecycled()) {
+                complete = false;
+                continue;
+            }
+            layoutCell(layout, count, i, width, height, dst);
+            //软件Canvas不能绘制HARDWARE位图,临时拷贝一份
+            final boolean hardware = BitmapConfigPolicy.isHardware(avatar);
+            if (hardware) {
+                avatar = avatar.copy(Bitmap.Config.ARGB_8888, false);
+            }
+            computeCenterCrop(avatar.getWidth(), avatar.getHeight(), dst, src);
+            canvas.drawBitmap(avatar, src, dst, paint);
+            if (hardware) {
+                avatar.recycle();
+            }
+        }
+        sComposeCount++;
+        if (!complete) {
+            //缺少头像的结果不能按成员id复用,最后一个引用释放后直接归还复用池
+            SharedBitmapRegistry.acquire(composite, null, true);
+            return composite;
+        }
+        SharedBitmapRegistry.acquire(composite, key, true);
+        sComposites.put(key, composite);
+        SharedBitmapRegistry.acquire(composite, key, true);
+        return composite;
+    }
+
+    /**
+     * 计算第index个头像的区域.
+     * 宫格:1个铺满,2到4个两列,5到9个三列,第一行不满时居中,整体在正方形内垂直居中.
+     * 分割:2个左右各半,3个左半边加右侧上下两块,4个四等分.
+     */
+    static void layoutCell(int layout, int count, int index, int width, int height, RectF out) {
+        final int side = Math.min(width, height);
+        if (layout == LAYOUT_SPLIT) {
+            final float gap = Math.max(1, Math.round(side * SPLIT_GAP_RATIO));
+            final float halfWidth = (width - gap) / 2f;
+            final float halfHeight = (height - gap) / 2f;
+            if (count <= 1) {
+                out.set(0, 0, width, height);
+            } else if (count == 2 || (count == 3 && index == 0)) {
+                final float left = index == 0 ? 0 : width - halfWidth;
+                out.set(left, 0, left + halfWidth, height);
+            } else {
+                //3个时右侧两块对应四宫格的右上和右下
+                final int cell = count == 3 ? index * 2 - 1 : index;
+                final float left = cell % 2 == 0 ? 0 : width - halfWidth;
+                final float top = cell < 2 ? 0 : height - halfHeight;
+                out.set(left, top, left + halfWidth, top + halfHeight);
+            }
+            return;
+        }
+        final float gap = Math.max(1, Math.round(side * GRID_GAP_RATIO));
+        final int columns = count <= 1 ? 1 : count <= 4 ? 2 : 3;
+        final int rows = (count + columns - 1) / columns;
+        final float cellSize = (side - gap * (columns + 1)) / columns;
+        final int firstRowCount = count - (rows - 1) * columns;
+        final int row = index < firstRowCount ? 0 : (index - firstRowCount) / columns + 1;
+        final int column = row == 0 ? index : (index - firstRowCount) % columns;
+        final int rowCount = row == 0 ? firstRowCount : columns;
+        final float top = (height - rows * cellSize - (rows - 1) * gap) / 2f + row * (cellSize + gap);
+        final float left = (width - rowCount * cellSize - (rowCount - 1) * gap) / 2f + column * (cellSize + gap);
+        out.set(left, top, left + cellSize, top + cellSize);
+    }
+
+    /**
+     * 按CENTER_CROP计算位图中绘制到dst的区域.
+     */
+    private static void computeCenterCrop(int bitmapWidth, int bitmapHeight, RectF dst, Rect out) {
+        final float scale = Math.max(dst.width() / bitmapWidth, dst.height() / bitmapHeight);
+        final int srcWidth = Math.round(dst.width() / scale);
+        final int srcHeight = Math.round(dst.height() / scale);
+        final int left = (bitmapWidth - srcWidth) / 2;
+        final int top = (bitmapHeight - srcHeight) / 2;
+        out.set(left, top, left + srcWidth, top + srcHeight);
+    }
+
+    static int getComposeCount() {
+        return sComposeCount;
+    }
+}
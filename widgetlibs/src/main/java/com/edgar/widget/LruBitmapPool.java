@@ -0,0 +1,183 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Edgar on 2019/08/14.
+ * 按宽、高、Config分桶,按字节数做LRU淘汰的{@link BitmapPool}实现.
+ */
+public class LruBitmapPool implements BitmapPool {
+
+    private final LinkedHashMap<Key, ArrayDeque<Bitmap>> mBuckets = new LinkedHashMap<>(16, 0.75f, true);
+    private final Key mLookupKey = new Key();
+    private long mMaxSize;
+    private long mCurrentSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    public LruBitmapPool(long maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    @NonNull
+    @Override
+    public synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        ArrayDeque<Bitmap> bucket = mBuckets.get(mLookupKey.set(width, height, config));
+        Bitmap bitmap = bucket != null ? bucket.pollLast() : null;
+        if (bitmap != null) {
+            if (bucket.isEmpty()) {
+                mBuckets.remove(mLookupKey);
+            }
+            mCurrentSize -= getBitmapByteSize(bitmap);
+            mHitCount++;
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+        mMissCount++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    @Override
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        final Bitmap.Config config = bitmap.getConfig();
+        final int size = getBitmapByteSize(bitmap);
+        if (config == null || size > mMaxSize) {
+            return;
+        }
+        mLookupKey.set(bitmap.getWidth(), bitmap.getHeight(), config);
+        ArrayDeque<Bitmap> bucket = mBuckets.get(mLookupKey);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(mLookupKey.copy(), bucket);
+        } else {
+            for (Bitmap pooled : bucket) {
+                if (pooled == bitmap) {
+                    return;
+                }
+            }
+        }
+        bucket.addLast(bitmap);
+        mCurrentSize += size;
+        mPutCount++;
+        trimToSize(mMaxSize);
+    }
+
+    @Override
+    public synchronized void clearMemory() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<Key, ArrayDeque<Bitmap>>> iterator = mBuckets.entrySet().iterator();
+        while (mCurrentSize > maxSize && iterator.hasNext()) {
+            ArrayDeque<Bitmap> bucket = iterator.next().getValue();
+            while (mCurrentSize > maxSize && !bucket.isEmpty()) {
+                Bitmap bitmap = bucket.pollFirst();
+                mCurrentSize -= getBitmapByteSize(bitmap);
+                mEvictionCount++;
+                bitmap.recycle();
+            }
+            if (bucket.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized long getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    /**
+     * 从池中复用的次数.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 池中没有合适位图而新建位图的次数,稳定滚动时不应该增长.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mPutCount = 0;
+        mEvictionCount = 0;
+    }
+
+    static int getBitmapByteSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static final class Key {
+        int width;
+        int height;
+        Bitmap.Config config;
+
+        Key set(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            return this;
+        }
+
+        Key copy() {
+            return new Key().set(width, height, config);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + (config != null ? config.hashCode() : 0);
+            return result;
+        }
+    }
+}
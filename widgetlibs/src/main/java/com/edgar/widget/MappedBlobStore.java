@@ -0,0 +1,562 @@
+package com.edgar.widget;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by Edgar on 2019/08/21.
+ * {@link RoundedThumbnailStore}的字节存储层,不依赖Android,可以在JVM上测试.
+ * 索引文件是内存映射的定长开放寻址哈希表,数据只追加写入分段文件.
+ * 总大小超过上限或者索引过满时按最近访问顺序整理:保留最近使用的记录写入新的分段,删除旧的分段.
+ * 先写数据再写索引,打开时删除索引没有引用的分段,中途崩溃不会读到不完整的数据.
+ */
+final class MappedBlobStore implements Closeable {
+
+    static final int DEFAULT_CAPACITY = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String INDEX_FILE = "index";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final int INDEX_MAGIC = 0x52544958;
+    private static final int RECORD_MAGIC = 0x52545243;
+    private static final int VERSION = 1;
+    //header: magic, version, capacity, activeSegment, clock(long)
+    private static final int HEADER_SIZE = 24;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_ACTIVE_SEGMENT = 12;
+    private static final int HEADER_CLOCK = 16;
+    //slot: hash(long), segment, offset, length, state, access(long)
+    private static final int SLOT_SIZE = 32;
+    private static final int SLOT_SEGMENT = 8;
+    private static final int SLOT_OFFSET = 12;
+    private static final int SLOT_LENGTH = 16;
+    private static final int SLOT_STATE = 20;
+    private static final int SLOT_ACCESS = 24;
+    private static final int STATE_EMPTY = 0;
+    private static final int STATE_USED = 1;
+    private static final int STATE_DELETED = 2;
+    //record: magic, keyLength, dataLength, key, data
+    private static final int RECORD_HEADER_SIZE = 12;
+    //整理后保留的比例,避免每次写入都触发整理
+    private static final float TRIM_RATIO = 0.75f;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+    private static final int SEGMENTS_PER_STORE = 4;
+
+    private final File mDir;
+    private final long mMaxSize;
+    private final long mMaxSegmentSize;
+    private final int mCapacity;
+    private final RandomAccessFile mIndexFile;
+    private final MappedByteBuffer mIndex;
+    private final Map<Integer, RandomAccessFile> mSegments = new HashMap<>();
+    private int mActiveSegment;
+    private int mCount;
+    private int mDeletedCount;
+    private long mLiveSize;
+    private long mDiskSize;
+    private int mHitCount;
+    private int mMissCount;
+    private int mCompactionCount;
+    private boolean mClosed;
+
+    MappedBlobStore(File dir, long maxSize) throws IOException {
+        this(dir, maxSize, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 索引槽位数,必须是2的幂,和已有索引不一致时清空重建
+     */
+    MappedBlobStore(File dir, long maxSize, int capacity) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        mDir = dir;
+        mMaxSize = maxSize;
+        mMaxSegmentSize = Math.max(1, maxSize / SEGMENTS_PER_STORE);
+        mCapacity = capacity;
+        final File indexFile = new File(dir, INDEX_FILE);
+        final long indexSize = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        final boolean existed = indexFile.length() == indexSize;
+        mIndexFile = new RandomAccessFile(indexFile, "rw");
+        mIndexFile.setLength(indexSize);
+        mIndex = mIndexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+        if (!existed || mIndex.getInt(0) != INDEX_MAGIC || mIndex.getInt(4) != VERSION
+                || mIndex.getInt(HEADER_CAPACITY) != capacity) {
+            resetIndex();
+        }
+        loadIndex();
+    }
+
+    private void resetIndex() {
+        for (int i = 0; i < mIndex.capacity(); i += 4) {
+            mIndex.putInt(i, 0);
+        }
+        mIndex.putInt(0, INDEX_MAGIC);
+        mIndex.putInt(4, VERSION);
+        mIndex.putInt(HEADER_CAPACITY, mCapacity);
+        mIndex.putInt(HEADER_ACTIVE_SEGMENT, 0);
+        mIndex.putLong(HEADER_CLOCK, 0);
+    }
+
+    /**
+     * 统计索引,删除没有被引用的分段(整理或者写入中途崩溃留下的).
+     */
+    private void loadIndex() throws IOException {
+        final Set<Integer> referenced = new HashSet<>();
+        for (int slot = 0; slot < mCapacity; slot++) {
+            final int state = getSlotState(slot);
+            if (state == STATE_USED) {
+                final int segment = mIndex.getInt(slotOffset(slot) + SLOT_SEGMENT);
+                final int offset = mIndex.getInt(slotOffset(slot) + SLOT_OFFSET);
+                final int length = mIndex.getInt(slotOffset(slot) + SLOT_LENGTH);
+                if (offset + (long) length > segmentFile(segment).length()) {
+                    //数据没有完整写入
+                    setSlotState(slot, STATE_DELETED);
+                    mDeletedCount++;
+                    continue;
+                }
+                referenced.add(segment);
+                mCount++;
+                mLiveSize += length;
+            } else if (state == STATE_DELETED) {
+                mDeletedCount++;
+            }
+        }
+        mActiveSegment = mIndex.getInt(HEADER_ACTIVE_SEGMENT);
+        referenced.add(mActiveSegment);
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final int segment = parseSegmentId(file.getName());
+                if (segment < 0) {
+                    continue;
+                }
+                if (!referenced.contains(segment)) {
+                    deleteFile(file);
+                } else {
+                    mDiskSize += file.length();
+                }
+            }
+        }
+    }
+
+    private static int parseSegmentId(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File segmentFile(int segment) {
+        return new File(mDir, SEGMENT_PREFIX + segment);
+    }
+
+    private RandomAccessFile openSegment(int segment) throws IOException {
+        RandomAccessFile file = mSegments.get(segment);
+        if (file == null) {
+            file = new RandomAccessFile(segmentFile(segment), "rw");
+            mSegments.put(segment, file);
+        }
+        return file;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private int getSlotState(int slot) {
+        return mIndex.getInt(slotOffset(slot) + SLOT_STATE);
+    }
+
+    private void setSlotState(int slot, int state) {
+        mIndex.putInt(slotOffset(slot) + SLOT_STATE, state);
+    }
+
+    static long hash(byte[] key) {
+        //FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 返回key对应的数据,并记录为最近访问.
+     */
+    synchronized byte[] get(String key) throws IOException {
+        checkNotClosed();
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        final int slot = findSlot(keyBytes, hash(keyBytes));
+        if (slot < 0) {
+            mMissCount++;
+            return null;
+        }
+        byte[] data = readData(slot, keyBytes);
+        if (data == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        touch(slot);
+        return data;
+    }
+
+    synchronized boolean contains(String key) throws IOException {
+        checkNotClosed();
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        return findSlot(keyBytes, hash(keyBytes)) >= 0;
+    }
+
+    /**
+     * 追加写入数据,单条记录超过分段大小时返回false.
+     */
+    synchronized boolean put(String key, byte[] data) throws IOException {
+        checkNotClosed();
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        final int length = RECORD_HEADER_SIZE + keyBytes.length + data.length;
+        if (length > mMaxSegmentSize) {
+            return false;
+        }
+        final long hash = hash(keyBytes);
+        final int existing = findSlot(keyBytes, hash);
+        if (existing >= 0) {
+            removeSlot(existing);
+        }
+        if (mCount + mDeletedCount + 1 > mCapacity * MAX_LOAD_FACTOR) {
+            compact();
+        }
+        //先写数据再写索引
+        RandomAccessFile segment = openSegment(mActiveSegment);
+        if (segment.length() + length > mMaxSegmentSize) {
+            mActiveSegment = nextSegmentId();
+            mIndex.putInt(HEADER_ACTIVE_SEGMENT, mActiveSegment);
+            segment = openSegment(mActiveSegment);
+        }
+        final long offset = segment.length();
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(RECORD_MAGIC).putInt(keyBytes.length).putInt(data.length).put(keyBytes).put(data);
+        segment.seek(offset);
+        segment.write(record.array());
+        mDiskSize += length;
+        final int slot = findFreeSlot(hash);
+        final int base = slotOffset(slot);
+        if (getSlotState(slot) == STATE_DELETED) {
+            mDeletedCount--;
+        }
+        mIndex.putLong(base, hash);
+        mIndex.putInt(base + SLOT_SEGMENT, mActiveSegment);
+        mIndex.putInt(base + SLOT_OFFSET, (int) offset);
+        mIndex.putInt(base + SLOT_LENGTH, length);
+        setSlotState(slot, STATE_USED);
+        touch(slot);
+        mCount++;
+        mLiveSize += length;
+        if (mDiskSize > mMaxSize) {
+            compact();
+        }
+        return true;
+    }
+
+    synchronized boolean remove(String key) throws IOException {
+        checkNotClosed();
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        final int slot = findSlot(keyBytes, hash(keyBytes));
+        if (slot < 0) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    private void removeSlot(int slot) {
+        setSlotState(slot, STATE_DELETED);
+        mCount--;
+        mDeletedCount++;
+        mLiveSize -= mIndex.getInt(slotOffset(slot) + SLOT_LENGTH);
+    }
+
+    private void touch(int slot) {
+        final long clock = mIndex.getLong(HEADER_CLOCK) + 1;
+        mIndex.putLong(HEADER_CLOCK, clock);
+        mIndex.putLong(slotOffset(slot) + SLOT_ACCESS, clock);
+    }
+
+    private int findSlot(byte[] keyBytes, long hash) throws IOException {
+        final int mask = mCapacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        for (int i = 0; i < mCapacity; i++, slot = (slot + 1) & mask) {
+            final int state = getSlotState(slot);
+            if (state == STATE_EMPTY) {
+                return -1;
+            }
+            if (state == STATE_USED && mIndex.getLong(slotOffset(slot)) == hash
+                    && keyMatches(slot, keyBytes)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int findFreeSlot(long hash) {
+        final int mask = mCapacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (getSlotState(slot) == STATE_USED) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * 只读取记录头和key,排除哈希冲突.
+     */
+    private boolean keyMatches(int slot, byte[] keyBytes) throws IOException {
+        final int base = slotOffset(slot);
+        final int length = mIndex.getInt(base + SLOT_LENGTH);
+        final int headerLength = RECORD_HEADER_SIZE + keyBytes.length;
+        if (headerLength > length) {
+            return false;
+        }
+        final byte[] header = readRecord(mIndex.getInt(base + SLOT_SEGMENT), mIndex.getInt(base + SLOT_OFFSET), headerLength);
+        final ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.getInt() != RECORD_MAGIC || buffer.getInt() != keyBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (header[RECORD_HEADER_SIZE + i] != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取记录,key不一致(哈希冲突)或者记录损坏时返回null.
+     */
+    private byte[] readData(int slot, byte[] keyBytes) throws IOException {
+        final int base = slotOffset(slot);
+        final int length = mIndex.getInt(base + SLOT_LENGTH);
+        final byte[] record = readRecord(mIndex.getInt(base + SLOT_SEGMENT), mIndex.getInt(base + SLOT_OFFSET), length);
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        if (buffer.getInt() != RECORD_MAGIC) {
+            return null;
+        }
+        final int keyLength = buffer.getInt();
+        final int dataLength = buffer.getInt();
+        if (keyLength != keyBytes.length || RECORD_HEADER_SIZE + keyLength + dataLength != length) {
+            return null;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (record[RECORD_HEADER_SIZE + i] != keyBytes[i]) {
+                return null;
+            }
+        }
+        return Arrays.copyOfRange(record, RECORD_HEADER_SIZE + keyLength, length);
+    }
+
+    private byte[] readRecord(int segment, int offset, int length) throws IOException {
+        RandomAccessFile file = openSegment(segment);
+        byte[] record = new byte[length];
+        file.seek(offset);
+        file.readFully(record);
+        return record;
+    }
+
+    /**
+     * 分段编号递增,当前写入的分段总是编号最大的.
+     */
+    private int nextSegmentId() {
+        int max = mActiveSegment;
+        for (Integer id : mSegments.keySet()) {
+            max = Math.max(max, id);
+        }
+        return max + 1;
+    }
+
+    /**
+     * 按最近访问顺序保留记录,写入新的分段后重建索引,最后删除旧的分段.
+     */
+    synchronized void compact() throws IOException {
+        checkNotClosed();
+        mCompactionCount++;
+        final int[] slots = new int[mCount];
+        int n = 0;
+        for (int slot = 0; slot < mCapacity && n < slots.length; slot++) {
+            if (getSlotState(slot) == STATE_USED) {
+                slots[n++] = slot;
+            }
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = slots[i];
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long accessA = mIndex.getLong(slotOffset(a) + SLOT_ACCESS);
+                long accessB = mIndex.getLong(slotOffset(b) + SLOT_ACCESS);
+                return accessA < accessB ? 1 : (accessA == accessB ? 0 : -1);
+            }
+        });
+        final long targetSize = (long) (mMaxSize * TRIM_RATIO);
+        final int targetCount = (int) (mCapacity * MAX_LOAD_FACTOR * TRIM_RATIO);
+        //新分段的编号大于所有旧分段
+        final int firstSegmentId = nextSegmentId();
+        int segmentId = firstSegmentId;
+        RandomAccessFile segment = openSegment(segmentId);
+        final long[] keptHash = new long[n];
+        final int[] keptSegment = new int[n];
+        final int[] keptOffset = new int[n];
+        final int[] keptLength = new int[n];
+        final long[] keptAccess = new long[n];
+        int kept = 0;
+        long keptSize = 0;
+        for (int i = 0; i < n; i++) {
+            final int base = slotOffset(order[i]);
+            final int length = mIndex.getInt(base + SLOT_LENGTH);
+            if (kept >= targetCount || keptSize + length > targetSize) {
+                break;
+            }
+            final byte[] record = readRecord(mIndex.getInt(base + SLOT_SEGMENT),
+                    mIndex.getInt(base + SLOT_OFFSET), length);
+            if (segment.length() + length > mMaxSegmentSize) {
+                segment.getFD().sync();
+                segment = openSegment(++segmentId);
+            }
+            keptHash[kept] = mIndex.getLong(base);
+            keptSegment[kept] = segmentId;
+            keptOffset[kept] = (int) segment.length();
+            keptLength[kept] = length;
+            keptAccess[kept] = mIndex.getLong(base + SLOT_ACCESS);
+            segment.seek(segment.length());
+            segment.write(record);
+            kept++;
+            keptSize += length;
+        }
+        segment.getFD().sync();
+        //重建索引
+        final long clock = mIndex.getLong(HEADER_CLOCK);
+        resetIndex();
+        mIndex.putLong(HEADER_CLOCK, clock);
+        mIndex.putInt(HEADER_ACTIVE_SEGMENT, segmentId);
+        for (int i = 0; i < kept; i++) {
+            final int base = slotOffset(findFreeSlot(keptHash[i]));
+            mIndex.putLong(base, keptHash[i]);
+            mIndex.putInt(base + SLOT_SEGMENT, keptSegment[i]);
+            mIndex.putInt(base + SLOT_OFFSET, keptOffset[i]);
+            mIndex.putInt(base + SLOT_LENGTH, keptLength[i]);
+            mIndex.putInt(base + SLOT_STATE, STATE_USED);
+            mIndex.putLong(base + SLOT_ACCESS, keptAccess[i]);
+        }
+        mIndex.force();
+        mActiveSegment = segmentId;
+        mCount = kept;
+        mDeletedCount = 0;
+        mLiveSize = keptSize;
+        mDiskSize = keptSize;
+        Iterator<Map.Entry<Integer, RandomAccessFile>> iterator = mSegments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, RandomAccessFile> entry = iterator.next();
+            if (entry.getKey() < firstSegmentId) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final int id = parseSegmentId(file.getName());
+                if (id >= 0 && id < firstSegmentId) {
+                    deleteFile(file);
+                }
+            }
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private void checkNotClosed() {
+        if (mClosed) {
+            throw new IllegalStateException("MappedBlobStore is closed");
+        }
+    }
+
+    synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * 有效记录占用的字节数.
+     */
+    synchronized long getLiveSize() {
+        return mLiveSize;
+    }
+
+    /**
+     * 所有分段文件的字节数,包含已删除和被覆盖的记录.
+     */
+    synchronized long getDiskSize() {
+        return mDiskSize;
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized int getCompactionCount() {
+        return mCompactionCount;
+    }
+
+    synchronized void flush() throws IOException {
+        checkNotClosed();
+        mIndex.force();
+        for (RandomAccessFile file : mSegments.values()) {
+            file.getFD().sync();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mIndex.force();
+        for (RandomAccessFile file : mSegments.values()) {
+            file.close();
+        }
+        mSegments.clear();
+        mIndexFile.close();
+        mClosed = true;
+    }
+}
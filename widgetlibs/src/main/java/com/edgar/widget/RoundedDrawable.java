@@ -0,0 +1,515 @@
+package com.edgar.widget;
+
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.DisplayMetrics;
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Created by Edgar on 2019/08/20.
+ * 按CENTER_CROP绘制圆角/圆形位图的Drawable,可以用作背景、TextView的CompoundDrawable或者其他ImageView的图片.
+ * 通过{@link #getConstantState()}创建的Drawable共享同一个位图和BitmapShader,
+ * 尺寸相同时也共享Shader的矩阵,修改样式前需要先调用{@link #mutate()}.
+ * {@link RoundedImageView}也使用它绘制光栅化之后的位图.
+ */
+public class RoundedDrawable extends Drawable {
+
+    private RoundedState mState;
+    private boolean mMutated;
+    private final Paint mBitmapPaint;
+    private final Paint mBorderPaint;
+    private final Paint mMaskPaint;
+    private final Matrix mShaderMatrix = new Matrix();
+    private final RectF mMatrixRect = new RectF();
+    private ShaderState mMatrixShaderState;  //mShaderMatrix对应的位图
+    private BitmapShader mOwnShader;  //尺寸和共享Shader的矩阵不一致时使用自己的Shader
+    private Bitmap mOwnShaderBitmap;
+    private RoundedGeometry mGeometry;
+    private boolean mGeometryValid;
+    private int mGeometryGeneration;  //共享样式的其他Drawable修改圆角、边框后需要重新取几何数据
+    private boolean mPressed;
+    private ColorFilter mColorFilter;  //外部设置的ColorFilter
+    private PorterDuffColorFilter mMaskFilter;  //按下遮罩合并到图片的绘制中
+    private int mMaskFilterColor;
+    private int mTargetDensity;
+
+    public RoundedDrawable(@Nullable Resources res, @Nullable Bitmap bitmap) {
+        this(new RoundedState(bitmap != null ? new ShaderState(bitmap) : null), res);
+    }
+
+    private RoundedDrawable(RoundedState state, @Nullable Resources res) {
+        mState = state;
+        DisplayMetrics metrics = res != null ? res.getDisplayMetrics() : null;
+        mTargetDensity = metrics != null ? metrics.densityDpi : 0;
+        mBitmapPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mBitmapPaint.setDither(true);
+        mBorderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mBorderPaint.setDither(true);
+        mBorderPaint.setStyle(Paint.Style.STROKE);
+        mMaskPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mMaskPaint.setDither(true);
+    }
+
+    /**
+     * 把任意Drawable转换成RoundedDrawable,位图Drawable直接使用它的位图,其他Drawable按固有尺寸光栅化.
+     * 固有尺寸无效时返回null.
+     */
+    @Nullable
+    public static RoundedDrawable fromDrawable(@Nullable Resources res, @Nullable Drawable drawable) {
+        if (drawable == null || drawable instanceof RoundedDrawable) {
+            return (RoundedDrawable) drawable;
+        }
+        if (drawable instanceof BitmapDrawable) {
+            return new RoundedDrawable(res, ((BitmapDrawable) drawable).getBitmap());
+        }
+        final int width = drawable.getIntrinsicWidth();
+        final int height = drawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Rect bounds = drawable.copyBounds();
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(new Canvas(bitmap));
+        drawable.setBounds(bounds);
+        return new RoundedDrawable(res, bitmap);
+    }
+
+    @Nullable
+    public Bitmap getBitmap() {
+        return mState.shaderState != null ? mState.shaderState.bitmap : null;
+    }
+
+    /**
+     * 宿主控件更换位图,Shader来自{@link SharedBitmapRegistry},显示同一个位图的控件共享.
+     */
+    void setShaderState(@Nullable ShaderState shaderState) {
+        if (mState.shaderState != shaderState) {
+            mState.shaderState = shaderState;
+            invalidateSelf();
+        }
+    }
+
+    public void setCornerRadius(float radius) {
+        setCornerRadii(radius, radius, radius, radius);
+    }
+
+    /**
+     * 按顺时针方向设置四个圆角.
+     */
+    public void setCornerRadii(float topLeft, float topRight, float bottomRight, float bottomLeft) {
+        final float[] radii = mState.radii;
+        radii[RoundedGeometry.TOP_LEFT] = radii[RoundedGeometry.TOP_LEFT + 1] = topLeft;
+        radii[RoundedGeometry.TOP_RIGHT] = radii[RoundedGeometry.TOP_RIGHT + 1] = topRight;
+        radii[RoundedGeometry.BOTTOM_RIGHT] = radii[RoundedGeometry.BOTTOM_RIGHT + 1] = bottomRight;
+        radii[RoundedGeometry.BOTTOM_LEFT] = radii[RoundedGeometry.BOTTOM_LEFT + 1] = bottomLeft;
+        invalidateGeometry();
+    }
+
+    public boolean isOval() {
+        return mState.oval;
+    }
+
+    public void setOval(boolean oval) {
+        if (mState.oval != oval) {
+            mState.oval = oval;
+            invalidateGeometry();
+        }
+    }
+
+    public int getBorderSize() {
+        return mState.borderSize;
+    }
+
+    public void setBorderSize(int borderSize) {
+        if (mState.borderSize != borderSize) {
+            mState.borderSize = borderSize;
+            invalidateGeometry();
+        }
+    }
+
+    @ColorInt
+    public int getBorderColor() {
+        return mState.borderColor;
+    }
+
+    public void setBorderColor(@ColorInt int borderColor) {
+        if (mState.borderColor != borderColor) {
+            mState.borderColor = borderColor;
+            invalidateSelf();
+        }
+    }
+
+    public boolean isBorderOverlay() {
+        return mState.borderOverlay;
+    }
+
+    public void setBorderOverlay(boolean borderOverlay) {
+        if (mState.borderOverlay != borderOverlay) {
+            mState.borderOverlay = borderOverlay;
+            invalidateGeometry();
+        }
+    }
+
+    /**
+     * 按下时覆盖在图片上的颜色,null表示不绘制.
+     */
+    public void setMaskColor(@Nullable ColorStateList maskColor) {
+        if (mState.maskColor != maskColor) {
+            mState.maskColor = maskColor;
+            invalidateSelf();
+        }
+    }
+
+    @Nullable
+    public ColorStateList getMaskColor() {
+        return mState.maskColor;
+    }
+
+    private void invalidateGeometry() {
+        mState.generation++;
+        invalidateSelf();
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+        mGeometryValid = false;
+    }
+
+    private RoundedGeometry getGeometry() {
+        final RoundedState state = mState;
+        if (!mGeometryValid || mGeometryGeneration != state.generation) {
+            final Rect bounds = getBounds();
+            mGeometry = bounds.isEmpty() ? null : RoundedGeometryCache.obtain(bounds.width(), bounds.height(),
+                    state.radii, state.borderSize, state.borderOverlay, state.oval, 0);
+            mGeometryValid = true;
+            mGeometryGeneration = state.generation;
+        }
+        return mGeometry;
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        final RoundedGeometry geometry = getGeometry();
+        if (geometry == null) {
+            return;
+        }
+        final Rect bounds = getBounds();
+        final int saveCount = canvas.save();
+        canvas.translate(bounds.left, bounds.top);
+        drawRounded(canvas, geometry);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * 按给定的几何数据绘制图片、按下遮罩和边框,坐标以图片区域左上角为原点.
+     * {@link RoundedImageView}用它绘制自己管理的几何数据(包括动画中的几何数据).
+     */
+    void drawRounded(Canvas canvas, RoundedGeometry geometry) {
+        if (!updateShader(geometry.drawableRect)) {
+            drawOverlay(canvas, geometry, false);
+            return;
+        }
+        //按下遮罩通过ColorFilter和图片一起绘制,不透明边框下的区域不绘制图片,每个像素只绘制一次
+        final boolean maskFolded = updateMaskFilter();
+        final boolean inner = geometry.hasInner && Color.alpha(mState.borderColor) == 255;
+        geometry.draw(canvas, inner ? RoundedGeometry.LAYER_INNER : RoundedGeometry.LAYER_DRAWABLE, mBitmapPaint);
+        if (!maskFolded) {
+            drawMask(canvas, geometry, false);
+        }
+        drawBorder(canvas, geometry);
+    }
+
+    /**
+     * 按下时把遮罩颜色以SRC_ATOP的方式叠加到图片上,颜色不变时复用同一个ColorFilter.
+     * 外部设置了ColorFilter时返回false,由调用方单独绘制遮罩.
+     */
+    private boolean updateMaskFilter() {
+        final int maskColor = getCurrentMaskColor();
+        if (Color.alpha(maskColor) == 0) {
+            if (mBitmapPaint.getColorFilter() != mColorFilter) {
+                mBitmapPaint.setColorFilter(mColorFilter);
+            }
+            return true;
+        }
+        if (mColorFilter != null) {
+            return false;
+        }
+        if (mMaskFilter == null || mMaskFilterColor != maskColor) {
+            mMaskFilter = new PorterDuffColorFilter(maskColor, PorterDuff.Mode.SRC_ATOP);
+            mMaskFilterColor = maskColor;
+        }
+        if (mBitmapPaint.getColorFilter() != mMaskFilter) {
+            mBitmapPaint.setColorFilter(mMaskFilter);
+        }
+        return true;
+    }
+
+    private int getCurrentMaskColor() {
+        final ColorStateList maskColor = mState.maskColor;
+        if (!mPressed || maskColor == null) {
+            return Color.TRANSPARENT;
+        }
+        return maskColor.getColorForState(getState(), Color.TRANSPARENT);
+    }
+
+    /**
+     * 绘制按下遮罩和边框.
+     * @param clipped 画布已经按图片形状裁剪(轮廓裁剪),遮罩直接绘制矩形
+     */
+    void drawOverlay(Canvas canvas, RoundedGeometry geometry, boolean clipped) {
+        drawMask(canvas, geometry, clipped);
+        drawBorder(canvas, geometry);
+    }
+
+    void drawMask(Canvas canvas, RoundedGeometry geometry, boolean clipped) {
+        final int maskColor = getCurrentMaskColor();
+        if (Color.alpha(maskColor) != 0) {
+            mMaskPaint.setColor(maskColor);
+            if (clipped) {
+                canvas.drawRect(geometry.drawableRect, mMaskPaint);
+            } else {
+                geometry.draw(canvas, RoundedGeometry.LAYER_DRAWABLE, mMaskPaint);
+            }
+        }
+    }
+
+    private void drawBorder(Canvas canvas, RoundedGeometry geometry) {
+        final int borderSize = geometry.key.borderSize;
+        if (borderSize > 0) {
+            mBorderPaint.setColor(mState.borderColor);
+            mBorderPaint.setStrokeWidth(borderSize);
+            geometry.draw(canvas, RoundedGeometry.LAYER_BORDER, mBorderPaint);
+        }
+    }
+
+    /**
+     * 按CENTER_CROP计算Shader的矩阵,区域和位图都没有变化时不重新计算.
+     */
+    private boolean updateShader(RectF drawableRect) {
+        final ShaderState shaderState = mState.shaderState;
+        if (shaderState == null) {
+            return false;
+        }
+        if (mMatrixShaderState == shaderState && mMatrixRect.equals(drawableRect)) {
+            return true;
+        }
+        final Bitmap bitmap = shaderState.bitmap;
+        final int bitmapWidth = bitmap.getWidth();
+        final int bitmapHeight = bitmap.getHeight();
+        if (bitmapWidth <= 0 || bitmapHeight <= 0) {
+            return false;
+        }
+        final float fwidth = drawableRect.width();
+        final float fheight = drawableRect.height();
+        float scale;
+        float dx = 0, dy = 0;
+        if (bitmapWidth * fheight > fwidth * bitmapHeight) {
+            scale = fheight / (float) bitmapHeight;
+            dx = (fwidth - bitmapWidth * scale) * 0.5f;
+        } else {
+            scale = fwidth / (float) bitmapWidth;
+            dy = (fheight - bitmapHeight * scale) * 0.5f;
+        }
+        mShaderMatrix.setScale(scale, scale);
+        mShaderMatrix.postTranslate((int) (dx + 0.5f) + drawableRect.left, (int) (dy + 0.5f) + drawableRect.top);
+        BitmapShader shader = shaderState.obtainShader(mShaderMatrix);
+        if (shader == null) {
+            //已经有其他尺寸的Drawable设置了共享Shader的矩阵
+            if (mOwnShader == null || mOwnShaderBitmap != bitmap) {
+                mOwnShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+                mOwnShaderBitmap = bitmap;
+            }
+            mOwnShader.setLocalMatrix(mShaderMatrix);
+            shader = mOwnShader;
+        }
+        mBitmapPaint.setShader(shader);
+        mMatrixShaderState = shaderState;
+        mMatrixRect.set(drawableRect);
+        return true;
+    }
+
+    @Override
+    public boolean isStateful() {
+        return mState.maskColor != null;
+    }
+
+    @Override
+    protected boolean onStateChange(int[] state) {
+        boolean pressed = false;
+        for (int s : state) {
+            if (s == android.R.attr.state_pressed) {
+                pressed = true;
+                break;
+            }
+        }
+        if (mPressed != pressed) {
+            mPressed = pressed;
+            return mState.maskColor != null;
+        }
+        return mPressed && mState.maskColor != null && mState.maskColor.isStateful();
+    }
+
+    /**
+     * 图片的透明度,不影响边框和遮罩.
+     */
+    @Override
+    public void setAlpha(int alpha) {
+        if (mBitmapPaint.getAlpha() != alpha) {
+            mBitmapPaint.setAlpha(alpha);
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public int getAlpha() {
+        return mBitmapPaint.getAlpha();
+    }
+
+    @Override
+    public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        mColorFilter = colorFilter;
+        mBitmapPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        //圆角之外的区域是透明的
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        final Bitmap bitmap = getBitmap();
+        if (bitmap == null) {
+            return -1;
+        }
+        return mTargetDensity > 0 ? bitmap.getScaledWidth(mTargetDensity) : bitmap.getWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        final Bitmap bitmap = getBitmap();
+        if (bitmap == null) {
+            return -1;
+        }
+        return mTargetDensity > 0 ? bitmap.getScaledHeight(mTargetDensity) : bitmap.getHeight();
+    }
+
+    @Override
+    public int getChangingConfigurations() {
+        return super.getChangingConfigurations() | mState.changingConfigurations;
+    }
+
+    @Override
+    public ConstantState getConstantState() {
+        mState.changingConfigurations = getChangingConfigurations();
+        return mState;
+    }
+
+    /**
+     * 复制样式,位图和Shader仍然和其他Drawable共享.
+     */
+    @NonNull
+    @Override
+    public Drawable mutate() {
+        if (!mMutated && super.mutate() == this) {
+            mState = new RoundedState(mState);
+            mMutated = true;
+        }
+        return this;
+    }
+
+    /**
+     * 同一个位图共享的BitmapShader.第一个绘制的Drawable设置Shader的矩阵之后不再修改,
+     * 同尺寸的Drawable直接共享,其他尺寸使用自己的Shader.
+     * 跨控件共享时由{@link SharedBitmapRegistry}创建和管理.
+     */
+    static final class ShaderState {
+        final Bitmap bitmap;
+        private BitmapShader mShader;
+        private final Matrix mMatrix = new Matrix();
+        private boolean mMatrixSet;
+
+        ShaderState(@NonNull Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        @Nullable
+        BitmapShader obtainShader(Matrix matrix) {
+            if (mShader == null) {
+                mShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            }
+            if (!mMatrixSet) {
+                mMatrix.set(matrix);
+                mShader.setLocalMatrix(mMatrix);
+                mMatrixSet = true;
+                return mShader;
+            }
+            return mMatrix.equals(matrix) ? mShader : null;
+        }
+    }
+
+    static final class RoundedState extends ConstantState {
+        ShaderState shaderState;
+        final float[] radii = new float[8];
+        int borderSize;
+        int borderColor = Color.TRANSPARENT;
+        boolean borderOverlay = true;
+        boolean oval;
+        ColorStateList maskColor;
+        int changingConfigurations;
+        int generation;
+
+        RoundedState(ShaderState shaderState) {
+            this.shaderState = shaderState;
+        }
+
+        RoundedState(RoundedState orig) {
+            shaderState = orig.shaderState;
+            System.arraycopy(orig.radii, 0, radii, 0, radii.length);
+            borderSize = orig.borderSize;
+            borderColor = orig.borderColor;
+            borderOverlay = orig.borderOverlay;
+            oval = orig.oval;
+            maskColor = orig.maskColor;
+            changingConfigurations = orig.changingConfigurations;
+        }
+
+        @NonNull
+        @Override
+        public Drawable newDrawable() {
+            return new RoundedDrawable(this, null);
+        }
+
+        @NonNull
+        @Override
+        public Drawable newDrawable(@Nullable Resources res) {
+            return new RoundedDrawable(this, res);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return changingConfigurations;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.edgar.widget;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.util.Arrays;
+
+/**
+ * Created by Edgar on 2019/08/12.
+ * 圆角图片的几何数据(图片/边框的区域、圆角、Path),坐标以内容区域左上角为原点.
+ * 由{@link RoundedGeometryCache}创建并在多个控件之间共享,创建后不可修改.
+ * 动画期间控件使用{@link #createMutable()}创建的独占实例,每帧原地更新.
+ * 构建时按圆角对每个形状分类,绘制时选择开销最小的图元,只有圆角不一致时才使用Path.
+ */
+final class RoundedGeometry {
+
+    //顺时针方向
+    static final int TOP_LEFT = 0;
+    static final int TOP_RIGHT = 2;
+    static final int BOTTOM_RIGHT = 4;
+    static final int BOTTOM_LEFT = 6;
+    static final int[] DIRECTION = {TOP_LEFT, TOP_RIGHT, BOTTOM_RIGHT, BOTTOM_LEFT};
+    //图片和边框内沿重叠的像素,避免两者抗锯齿的边缘之间露出缝隙
+    private static final float SEAM_OVERLAP = 1f;
+
+    //形状分类,按绘制开销从小到大
+    static final int SHAPE_RECT = 0;
+    static final int SHAPE_ROUND_RECT = 1;
+    static final int SHAPE_OVAL = 2;
+    static final int SHAPE_PATH = 3;
+
+    static final int LAYER_DRAWABLE = 0;
+    static final int LAYER_BORDER = 1;
+    static final int LAYER_INNER = 2;
+
+    //关闭时除椭圆外都按Path绘制,用于对比测试
+    private static volatile boolean sPrimitiveSelectionEnabled = true;
+
+    final Key key;
+    final RectF drawableRect = new RectF();
+    final RectF borderRect = new RectF();
+    final float[] drawableRadii = new float[8];
+    //覆盖图片的边框内沿以内的区域,不透明边框时图片只绘制这部分,边框下的像素不会重复绘制
+    final RectF innerRect = new RectF();
+    final float[] innerRadii = new float[8];
+    boolean hasInner;
+    int drawableShape;
+    int borderShape;
+    int innerShape;
+    private final Path mDrawablePath = new Path();
+    private final Path mBorderPath = new Path();
+    private final Path mInnerPath = new Path();
+    private boolean mPathValid;  //Path在第一次使用时才构建,轮廓裁剪不需要Path
+    int refCount;
+
+    RoundedGeometry(Key key) {
+        this.key = key;
+        build();
+    }
+
+    static RoundedGeometry createMutable() {
+        return new RoundedGeometry(new Key());
+    }
+
+    /**
+     * 原地更新独占实例,不分配新的对象,只能用于{@link #createMutable()}创建的实例.
+     */
+    void update(float width, float height, float[] radii, int borderSize, boolean borderOverlay, boolean oval,
+                float smoothing) {
+        key.set(width, height, radii, borderSize, borderOverlay, oval, smoothing);
+        build();
+    }
+
+    static void setPrimitiveSelectionEnabled(boolean enabled) {
+        sPrimitiveSelectionEnabled = enabled;
+    }
+
+    static boolean isPrimitiveSelectionEnabled() {
+        return sPrimitiveSelectionEnabled;
+    }
+
+    /**
+     * 用开销最小的图元绘制指定的形状,Path只在圆角不一致时才会构建.
+     * @param layer {@link #LAYER_DRAWABLE}, {@link #LAYER_BORDER}或{@link #LAYER_INNER}
+     */
+    void draw(Canvas canvas, int layer, Paint paint) {
+        final RectF rect;
+        final float[] radii;
+        int shape;
+        switch (layer) {
+            case LAYER_BORDER:
+                rect = borderRect;
+                radii = key.radii;
+                shape = borderShape;
+                break;
+            case LAYER_INNER:
+                rect = innerRect;
+                radii = innerRadii;
+                shape = innerShape;
+                break;
+            default:
+                rect = drawableRect;
+                radii = drawableRadii;
+                shape = drawableShape;
+                break;
+        }
+        if (!sPrimitiveSelectionEnabled && !key.oval) {
+            shape = SHAPE_PATH;
+        }
+        switch (shape) {
+            case SHAPE_RECT:
+                canvas.drawRect(rect, paint);
+                break;
+            case SHAPE_ROUND_RECT:
+                canvas.drawRoundRect(rect, radii[0], radii[0], paint);
+                break;
+            case SHAPE_OVAL:
+                canvas.drawOval(rect, paint);
+                break;
+            default:
+                ensurePath();
+                canvas.drawPath(layer == LAYER_BORDER ? mBorderPath
+                        : layer == LAYER_INNER ? mInnerPath : mDrawablePath, paint);
+                break;
+        }
+    }
+
+    Path getDrawablePath() {
+        ensurePath();
+        return mDrawablePath;
+    }
+
+    private void ensurePath() {
+        if (mPathValid) {
+            return;
+        }
+        mPathValid = true;
+        //rewind保留Path内部的存储空间,重复构建时不会分配内存
+        mBorderPath.rewind();
+        mDrawablePath.rewind();
+        mInnerPath.rewind();
+        if (key.oval) {
+            return;
+        }
+        if (key.smoothing > 0) {
+            ContinuousCorner.addRoundRect(mBorderPath, borderRect, key.radii, key.smoothing);
+            ContinuousCorner.addRoundRect(mDrawablePath, drawableRect, drawableRadii, key.smoothing);
+            if (hasInner) {
+                ContinuousCorner.addRoundRect(mInnerPath, innerRect, innerRadii, key.smoothing);
+            }
+        } else {
+            mBorderPath.addRoundRect(borderRect, key.radii, Path.Direction.CW);
+            mDrawablePath.addRoundRect(drawableRect, drawableRadii, Path.Direction.CW);
+            if (hasInner) {
+                mInnerPath.addRoundRect(innerRect, innerRadii, Path.Direction.CW);
+            }
+        }
+    }
+
+    private void build() {
+        final Key k = key;
+        borderRect.set(0, 0, k.width, k.height);
+        drawableRect.set(borderRect);
+        float offset = 0;
+        if (k.borderSize > 0) {
+            float inset = k.borderSize / 2f;
+            borderRect.inset(inset, inset);
+            if (!k.borderOverlay) {
+                drawableRect.inset(k.borderSize, k.borderSize);
+                if (!k.oval) {
+                    offset = -k.borderSize;
+                }
+            } else {
+                offset = k.borderSize;
+            }
+        }
+        for (int direction : DIRECTION) {
+            float radius = k.radii[direction];
+            radius = radius > 0 ? Math.max(0, radius + offset) : 0;
+            drawableRadii[direction] = drawableRadii[direction + 1] = radius;
+        }
+        hasInner = k.borderOverlay && k.borderSize > 0;
+        if (hasInner) {
+            //边框内沿:向内缩进borderSize,圆角减去borderSize/2
+            final float inset = Math.max(0, k.borderSize - SEAM_OVERLAP);
+            final float overlap = k.borderSize - inset;
+            innerRect.set(0, 0, k.width, k.height);
+            innerRect.inset(inset, inset);
+            for (int direction : DIRECTION) {
+                float radius = k.radii[direction];
+                radius = radius > 0 ? Math.max(0, radius - k.borderSize / 2f + overlap) : 0;
+                innerRadii[direction] = innerRadii[direction + 1] = radius;
+            }
+        }
+        drawableShape = classify(drawableRect, drawableRadii);
+        borderShape = classify(borderRect, k.radii);
+        innerShape = hasInner ? classify(innerRect, innerRadii) : SHAPE_RECT;
+        mPathValid = false;
+    }
+
+    /**
+     * 圆角全为0是矩形,圆角一致是圆角矩形,正方形且圆角达到边长一半是圆,其他情况只能用Path.
+     * 圆角超过边长一半时drawRoundRect和Path一样按比例缩小,所以长方形的胶囊形状仍然是圆角矩形.
+     * 连续曲率圆角只能用Path.
+     */
+    private int classify(RectF rect, float[] radii) {
+        if (key.oval) {
+            return SHAPE_OVAL;
+        }
+        final float radius = radii[0];
+        for (int i = 1; i < radii.length; i++) {
+            if (radii[i] != radius) {
+                return SHAPE_PATH;
+            }
+        }
+        if (radius <= 0) {
+            return SHAPE_RECT;
+        }
+        if (key.smoothing > 0) {
+            return SHAPE_PATH;
+        }
+        if (rect.width() == rect.height() && radius * 2 >= rect.width()) {
+            return SHAPE_OVAL;
+        }
+        return SHAPE_ROUND_RECT;
+    }
+
+    /**
+     * 几何数据的缓存key,查找时复用同一个实例,只有未命中时才会拷贝.
+     */
+    static final class Key {
+        float width;
+        float height;
+        final float[] radii = new float[8];
+        int borderSize;
+        boolean borderOverlay;
+        boolean oval;
+        float smoothing;  //连续曲率圆角的平滑度,0是普通圆角
+        private int hash;
+
+        Key set(float width, float height, float[] radii, int borderSize, boolean borderOverlay, boolean oval,
+                float smoothing) {
+            this.width = width;
+            this.height = height;
+            System.arraycopy(radii, 0, this.radii, 0, 8);
+            this.borderSize = borderSize;
+            this.borderOverlay = borderOverlay;
+            this.oval = oval;
+            this.smoothing = smoothing;
+            int result = Float.floatToIntBits(width);
+            result = 31 * result + Float.floatToIntBits(height);
+            result = 31 * result + Arrays.hashCode(this.radii);
+            result = 31 * result + borderSize;
+            result = 31 * result + (borderOverlay ? 1 : 0);
+            result = 31 * result + (oval ? 1 : 0);
+            result = 31 * result + Float.floatToIntBits(smoothing);
+            hash = result;
+            return this;
+        }
+
+        Key copy() {
+            return new Key().set(width, height, radii, borderSize, borderOverlay, oval, smoothing);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash
+                    && Float.compare(width, other.width) == 0
+                    && Float.compare(height, other.height) == 0
+                    && borderSize == other.borderSize
+                    && borderOverlay == other.borderOverlay
+                    && oval == other.oval
+                    && Float.compare(smoothing, other.smoothing) == 0
+                    && Arrays.equals(radii, other.radii);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.edgar.widget;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Edgar on 2019/08/12.
+ * 进程内共享的{@link RoundedGeometry}缓存.
+ * 相同尺寸、圆角、边框的控件共用同一份Path,复用的控件几何数据不变时不会重新构建Path.
+ * 被引用的数据不会被淘汰,引用数为0的数据按LRU顺序淘汰.
+ */
+public final class RoundedGeometryCache {
+
+    private static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final LinkedHashMap<RoundedGeometry.Key, RoundedGeometry> sCache =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private static final RoundedGeometry.Key sLookupKey = new RoundedGeometry.Key();
+    private static int sMaxSize = DEFAULT_MAX_SIZE;
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sEvictionCount;
+
+    private RoundedGeometryCache() {}
+
+    static synchronized RoundedGeometry acquire(float width, float height, float[] radii,
+                                                int borderSize, boolean borderOverlay, boolean oval,
+                                                float smoothing) {
+        RoundedGeometry geometry = get(width, height, radii, borderSize, borderOverlay, oval, smoothing);
+        geometry.refCount++;
+        trimToSize(sMaxSize);
+        return geometry;
+    }
+
+    /**
+     * 不增加引用计数,用于没有分离回调的{@link RoundedDrawable}.
+     * 返回的数据之后可能被淘汰出缓存,但是不可修改,调用方可以继续使用.
+     */
+    static synchronized RoundedGeometry obtain(float width, float height, float[] radii,
+                                               int borderSize, boolean borderOverlay, boolean oval,
+                                               float smoothing) {
+        RoundedGeometry geometry = get(width, height, radii, borderSize, borderOverlay, oval, smoothing);
+        trimToSize(sMaxSize);
+        return geometry;
+    }
+
+    private static RoundedGeometry get(float width, float height, float[] radii,
+                                       int borderSize, boolean borderOverlay, boolean oval,
+                                       float smoothing) {
+        RoundedGeometry.Key key = sLookupKey.set(width, height, radii, borderSize, borderOverlay, oval, smoothing);
+        RoundedGeometry geometry = sCache.get(key);
+        if (geometry != null) {
+            sHitCount++;
+        } else {
+            sMissCount++;
+            geometry = new RoundedGeometry(key.copy());
+            sCache.put(geometry.key, geometry);
+        }
+        return geometry;
+    }
+
+    static synchronized void release(RoundedGeometry geometry) {
+        if (geometry != null && geometry.refCount > 0) {
+            geometry.refCount--;
+            trimToSize(sMaxSize);
+        }
+    }
+
+    private static void trimToSize(int maxSize) {
+        if (sCache.size() <= maxSize) {
+            return;
+        }
+        Iterator<Map.Entry<RoundedGeometry.Key, RoundedGeometry>> iterator = sCache.entrySet().iterator();
+        while (sCache.size() > maxSize && iterator.hasNext()) {
+            if (iterator.next().getValue().refCount == 0) {
+                iterator.remove();
+                sEvictionCount++;
+            }
+        }
+    }
+
+    /**
+     * 设置缓存的最大条数,正在被控件使用的数据不计入淘汰.
+     */
+    public static synchronized void setMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        sMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public static synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public static synchronized int size() {
+        return sCache.size();
+    }
+
+    public static synchronized int getHitCount() {
+        return sHitCount;
+    }
+
+    public static synchronized int getMissCount() {
+        return sMissCount;
+    }
+
+    public static synchronized int getEvictionCount() {
+        return sEvictionCount;
+    }
+
+    public static synchronized void resetStats() {
+        sHitCount = 0;
+        sMissCount = 0;
+        sEvictionCount = 0;
+    }
+}
@@ -1,60 +1,207 @@
 package com.edgar.widget;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
-import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
+import android.graphics.Outline;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.Shader;
+import android.graphics.drawable.Animatable;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.widget.AppCompatImageView;
+import androidx.core.view.ViewCompat;
+import android.net.Uri;
+import android.os.Build;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewOutlineProvider;
+import android.view.ViewTreeObserver;
+import android.view.animation.Interpolator;
+
+import com.edgar.AnimationUtils;
+
+import java.io.File;
+import java.io.InputStream;
 
 /**
  * Created by Edgar on 2018/12/29.
  */
 public class RoundedImageView extends AppCompatImageView {
 
+    //圆角样式
+    public static final int CORNER_STYLE_CIRCULAR = 0;
+    public static final int CORNER_STYLE_CONTINUOUS = 1;
+    //群头像排列方式
+    public static final int GROUP_LAYOUT_GRID = GroupAvatarComposer.LAYOUT_GRID;
+    public static final int GROUP_LAYOUT_SPLIT = GroupAvatarComposer.LAYOUT_SPLIT;
+
     private static final String TAG = "RoundedImageView";
     private static final ScaleType CENTER_CROP = ScaleType.CENTER_CROP;
     private static final int COLOR_DRAWABLE_SIZE = 2;
-    private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.ARGB_8888;
+    private static final int BITMAP_CONFIG_DEFAULT = -1;
+    private static final int DEFAULT_POOL_DIVIDER = 32;
+    //按控件尺寸光栅化时,尺寸变化超过该比例才重新光栅化
+    private static final float RASTER_SIZE_THRESHOLD = 0.2f;
+    private static final int DEFAULT_CROSS_FADE_DURATION = 200;
+    private static final int DEFAULT_GROUP_BACKGROUND_COLOR = 0xFFE5E5E5;
     //顺时针方向
     private static final int TOP_LEFT = 0;
     private static final int TOP_RIGHT = 2;
     private static final int BOTTOM_RIGHT = 4;
     private static final int BOTTOM_LEFT = 6;
-    private static final int[] DIRECTION = {TOP_LEFT,TOP_RIGHT,BOTTOM_RIGHT,BOTTOM_LEFT};
+
+    private static BitmapPool sBitmapPool;
 
     private boolean mHaveFrame = false;
     private Bitmap mBitmap;
-    private BitmapShader mBitmapShader;
-    private Paint mDrawablePaint;
-    private Matrix mDrawableMatrix;
-    private Path mDrawablePath;
-    private Path mBorderPath;
+    private boolean mBitmapFromPool;  //光栅化得到的复用池位图,最后一个引用释放时归还
+    private boolean mRasterizeAtViewSize;
+    private boolean mAsyncRasterize;
+    private int mBitmapConfig = BITMAP_CONFIG_DEFAULT;
+    private Path mFallbackClipPath;
+    private boolean mPreRounded;  //图片是已经圆角处理过的缩略图
+    private String mThumbnailRequest;  //正在从RoundedThumbnailStore加载的图片来源
+    private BitmapDecoder.Source mDecodeSource;  //等待解码的图片来源,解码完成后清空
+    private BitmapDecoder.Task mDecodeTask;
+    private Bitmap mDecodedBitmap;  //控件自己解码、合成或读取的缩略图位图,分离窗口时解除绑定,重新依附时重新解码或合成
+    private BitmapDecoder.Source mDecodedSource;  //mDecodedBitmap的来源,用于重新解码
+    private String[] mGroupMemberIds;
+    private Bitmap[] mGroupAvatars;
+    private String mGroupKey;  //正在显示的群头像合成结果
+    private int mGroupLayout = GROUP_LAYOUT_GRID;
+    private int mGroupBackgroundColor = DEFAULT_GROUP_BACKGROUND_COLOR;
+    private TiledImageLoader mTiledImage;  //分块显示的超大图片,合成的位图由它管理
+    private Bitmap mPreview;  //完整图片准备好之前显示的低分辨率预览
+    private RoundedDrawable mPreviewDrawable;  //复用同一个实例绘制预览,和图片共用几何数据
+    private boolean mKeepPreview;  //解码完成设置图片时不清除预览
+    private boolean mPreviewReleased;  //分离窗口时释放了预览的引用,重新依附时重新登记
+    private boolean mDetached;  //分离窗口期间不登记新的引用
+    private boolean mCrossFading;
+    private long mCrossFadeStartTime;
+    private int mCrossFadeDuration = DEFAULT_CROSS_FADE_DURATION;
+    private boolean mRenderCacheEnabled;
+    private Bitmap mRenderCache;  //软件绘制时缓存的绘制结果
+    private Canvas mRenderCacheCanvas;
+    private boolean mRenderCacheValid;
+    private int mRenderCacheBuildCount;
+    private Drawable mRasterSource;  //当前光栅化位图对应的Drawable
+    private DrawableRasterizer.Task mRasterTask;
+    private boolean mContentDirty;  //光栅化的Drawable已失效(动画帧变化),下一次绘制时重绘到同一个位图
+    private boolean mContentAnimationPaused;  //不可见时暂停的动画,重新可见时恢复
+    private Canvas mRasterCanvas;
+    private Paint mPlaceholderPaint;
+    private boolean mOutlineClipEnabled = true;
+    private boolean mOutlineClip;  //当前是否使用轮廓裁剪
+    private float mOutlineRadius;
+    private ViewOutlineProvider mOutlineProvider;
+    //轮廓裁剪期间保存应用自己的OutlineProvider,关闭裁剪时恢复
+    private ViewOutlineProvider mSavedOutlineProvider;
+    private final Rect mTempBounds = new Rect();
+    private final DrawableRasterizer.Callback mRasterCallback = new DrawableRasterizer.Callback() {
+        @Override
+        public void onRasterized(DrawableRasterizer.Task task, Bitmap bitmap) {
+            if (task != mRasterTask) {
+                getBitmapPool().put(bitmap);
+                return;
+            }
+            mRasterTask = null;
+            if (bitmap == null) {
+                //失败时保留占位图,下次updateDrawable重新光栅化
+                return;
+            }
+            releasePooledBitmap();
+            setBitmap(bitmap, bitmap.isMutable());
+            mRasterSource = task.source;
+            updateDrawable();
+        }
+    };
+    private final BitmapDecoder.Callback mDecodeCallback = new BitmapDecoder.Callback() {
+        @Override
+        public void onDecoded(BitmapDecoder.Task task, Bitmap bitmap) {
+            if (task != mDecodeTask) {
+                return;
+            }
+            mDecodeTask = null;
+            final BitmapDecoder.Source source = mDecodeSource;
+            mDecodeSource = null;
+            if (bitmap == null) {
+                return;
+            }
+            //解码器持有引用直到回调结束,setBitmap中登记控件自己的引用
+            mKeepPreview = true;
+            setImageDrawable(new BitmapDrawable(getResources(), bitmap));
+            mKeepPreview = false;
+            mDecodedBitmap = bitmap;
+            //数据流解码后已经释放数据,分离窗口后不能重新解码
+            mDecodedSource = source.isReopenable() ? source : null;
+        }
+    };
+    private final TiledImageLoader.Listener mTiledListener = new TiledImageLoader.Listener() {
+        @Override
+        public void onCompositeChanged(Bitmap composite) {
+            if (mDetached) {
+                //重新依附时在initBitmap中重新登记
+                return;
+            }
+            //合成的位图原地更新,对象不变时只需要重绘
+            setBitmap(composite, false);
+            invalidateRenderCache();
+            invalidate();
+        }
+    };
+    private final RoundedDrawable mRoundedDrawable;  //绘制光栅化位图、按下遮罩和边框
+    private RoundedGeometry mGeometry;
+    private boolean mGeometryDirty;
+    private int mUpdateDepth;
+    private int mGeometryUpdateCount;
+    private RoundedGeometry mAnimatingGeometry;  //动画期间独占的几何数据,不进入共享缓存
+    private boolean mRadiiAnimating;
+    private final float[] mRadiiFrom = new float[4];
+    private final float[] mRadiiTo = new float[4];
+    private long mRadiiStartTime;
+    private long mRadiiDuration;
+    private Interpolator mRadiiInterpolator;
+    private boolean mBorderAnimating;
+    private float mBorderFrom;
+    private float mBorderTo;
+    private long mBorderStartTime;
+    private long mBorderDuration;
+    private Interpolator mBorderInterpolator;
+    private final Runnable mGeometryAnimationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            doGeometryAnimationFrame();
+        }
+    };
+    private final ViewTreeObserver.OnPreDrawListener mPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            if (mGeometryDirty && mUpdateDepth == 0) {
+                updateDrawable();
+            }
+            return true;
+        }
+    };
     private int mBorderSize;
-    private final RectF mDrawableRectF;
-    private final RectF mBorderRectF;
-    private final Paint mBorderPaint;
-    private float[] mDrawableRadii;
     private float[] mBorderRadii;
     private boolean mIsOval;  //圆形
     private boolean mSupportRounded;
     private boolean mBorderOverlay;
-    private Paint mMaskPaint;
-    private int mCurMaskColor;
-    private ColorStateList mMaskColor;
+    private int mCornerStyle = CORNER_STYLE_CIRCULAR;
+    private float mCornerSmoothing = ContinuousCorner.DEFAULT_SMOOTHING;
 
     public RoundedImageView(Context context) {
         this(context, null);
@@ -67,24 +214,20 @@ public class RoundedImageView extends AppCompatImageView {
     public RoundedImageView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
         super.setScaleType(CENTER_CROP);
-        mDrawablePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mDrawablePaint.setDither(true);
-        mBorderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mBorderPaint.setDither(true);
-        mMaskPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mMaskPaint.setDither(true);
-        mBorderRectF = new RectF();
-        mDrawableRectF = new RectF();
-        mDrawableRadii = new float[8];
-        mBorderRadii = mDrawableRadii.clone();
-        mDrawablePath = new Path();
-        mBorderPath = new Path();
+        mRoundedDrawable = new RoundedDrawable(context.getResources(), null);
+        mBorderRadii = new float[8];
         TypedArray ta = context.obtainStyledAttributes(attrs,R.styleable.RoundedImageView,defStyleAttr,0);
         int borderColor = ta.getColor(R.styleable.RoundedImageView_borderColor, Color.TRANSPARENT);
         mBorderSize = ta.getDimensionPixelSize(R.styleable.RoundedImageView_borderSize,0);
         mBorderOverlay = ta.getBoolean(R.styleable.RoundedImageView_borderOverlay,true);
         mIsOval = ta.getBoolean(R.styleable.RoundedImageView_isOval,false);
         mSupportRounded = ta.getBoolean(R.styleable.RoundedImageView_supportRounded,true);
+        mCornerStyle = ta.getInt(R.styleable.RoundedImageView_cornerStyle, CORNER_STYLE_CIRCULAR);
+        mCornerSmoothing = ta.getFloat(R.styleable.RoundedImageView_cornerSmoothing, ContinuousCorner.DEFAULT_SMOOTHING);
+        mRasterizeAtViewSize = ta.getBoolean(R.styleable.RoundedImageView_rasterizeAtViewSize,false);
+        mAsyncRasterize = ta.getBoolean(R.styleable.RoundedImageView_asyncRasterize,false);
+        mBitmapConfig = ta.getInt(R.styleable.RoundedImageView_bitmapConfig, BITMAP_CONFIG_DEFAULT);
+        int placeholderColor = ta.getColor(R.styleable.RoundedImageView_placeholderColor, Color.TRANSPARENT);
         ColorStateList maskColor = ta.getColorStateList(R.styleable.RoundedImageView_maskColor);
         float roundRadius = ta.getDimension(R.styleable.RoundedImageView_roundRadius,0);
         float topLeftRadius = ta.getDimension(R.styleable.RoundedImageView_roundTopLeftRadius, roundRadius);
@@ -94,73 +237,221 @@ public class RoundedImageView extends AppCompatImageView {
         setCornerRadii(topLeftRadius,topRightRadius,bottomLeftRadius,bottomRightRadius);
         ta.recycle();
         setBorderColor(borderColor);
-        mBorderPaint.setStrokeWidth(mBorderSize);
-        mBorderPaint.setStyle(Paint.Style.STROKE);
-        setMaskColor(maskColor);
+        if (maskColor != null) {
+            setMaskColor(maskColor);
+        }
+        setPlaceholderColor(placeholderColor);
         initBitmap();
     }
 
+    /**
+     * 设置光栅化非{@link BitmapDrawable}时使用的位图复用池.
+     */
+    public static synchronized void setBitmapPool(@NonNull BitmapPool pool) {
+        if (pool == null) {
+            throw new NullPointerException();
+        }
+        if (sBitmapPool != null && sBitmapPool != pool) {
+            sBitmapPool.clearMemory();
+        }
+        sBitmapPool = pool;
+    }
+
+    @NonNull
+    public static synchronized BitmapPool getBitmapPool() {
+        if (sBitmapPool == null) {
+            sBitmapPool = new LruBitmapPool(Runtime.getRuntime().maxMemory() / DEFAULT_POOL_DIVIDER);
+        }
+        return sBitmapPool;
+    }
+
+    /**
+     * 是否按形状选择绘制图元(矩形、圆角矩形、椭圆),默认开启.
+     * 关闭后除椭圆外都用Path绘制,只用于对比性能和绘制结果.
+     */
+    public static void setPrimitiveSelectionEnabled(boolean enabled) {
+        RoundedGeometry.setPrimitiveSelectionEnabled(enabled);
+    }
+
+    public static boolean isPrimitiveSelectionEnabled() {
+        return RoundedGeometry.isPrimitiveSelectionEnabled();
+    }
+
+    public boolean isRasterizeAtViewSize() {
+        return mRasterizeAtViewSize;
+    }
+
+    /**
+     * 非{@link BitmapDrawable}是否按控件最终的CENTER_CROP尺寸光栅化,而不是按Drawable的固有尺寸.
+     * 开启后会延迟到{@link #setFrame(int, int, int, int)}确定尺寸后再光栅化.
+     * 固有尺寸无效(小于等于0)的Drawable总是按控件尺寸光栅化.
+     */
+    public void setRasterizeAtViewSize(boolean rasterizeAtViewSize) {
+        if (mRasterizeAtViewSize != rasterizeAtViewSize) {
+            mRasterizeAtViewSize = rasterizeAtViewSize;
+            initBitmap();
+        }
+    }
+
+    public boolean isAsyncRasterize() {
+        return mAsyncRasterize;
+    }
+
+    /**
+     * 非{@link BitmapDrawable}是否在后台线程光栅化.
+     * 光栅化完成前继续显示之前的内容,没有内容时显示{@link #setPlaceholderColor(int)}设置的占位色.
+     * 重新设置图片或者分离窗口时会取消未完成的任务.
+     */
+    public void setAsyncRasterize(boolean asyncRasterize) {
+        if (mAsyncRasterize != asyncRasterize) {
+            mAsyncRasterize = asyncRasterize;
+            if (!asyncRasterize && mRasterTask != null) {
+                initBitmap();
+            }
+        }
+    }
+
+    /**
+     * 光栅化位图使用的Config策略,见{@link BitmapConfigPolicy}.
+     */
+    public int getBitmapConfig() {
+        return mBitmapConfig == BITMAP_CONFIG_DEFAULT ? BitmapConfigPolicy.getDefaultPolicy() : mBitmapConfig;
+    }
+
+    /**
+     * 设置光栅化非{@link BitmapDrawable}时使用的Config策略,例如{@link BitmapConfigPolicy#RGB_565}.
+     * 没有设置时使用{@link BitmapConfigPolicy#setDefaultPolicy(int)}的全局策略.
+     */
+    public void setBitmapConfig(int policy) {
+        BitmapConfigPolicy.checkPolicy(policy);
+        if (mBitmapConfig != policy) {
+            mBitmapConfig = policy;
+            initBitmap();
+        }
+    }
+
+    private Bitmap.Config resolveBitmapConfig(Drawable drawable) {
+        //HARDWARE位图不能修改,也不能在软件绘制中使用
+        boolean hardwareAllowed = isHardwareAccelerated() && getLayerType() != LAYER_TYPE_SOFTWARE
+                && !(drawable instanceof Animatable);
+        return BitmapConfigPolicy.resolve(getBitmapConfig(), drawable, hardwareAllowed);
+    }
+
+    /**
+     * 设置没有图片内容(例如后台光栅化还未完成)时显示的占位色.
+     */
+    public void setPlaceholderColor(@ColorInt int color) {
+        if (color == Color.TRANSPARENT) {
+            if (mPlaceholderPaint != null) {
+                mPlaceholderPaint = null;
+                invalidateRenderCache();
+                invalidate();
+            }
+            return;
+        }
+        if (mPlaceholderPaint == null) {
+            mPlaceholderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        } else if (mPlaceholderPaint.getColor() == color) {
+            return;
+        }
+        mPlaceholderPaint.setColor(color);
+        invalidateRenderCache();
+        invalidate();
+    }
+
     public void setMaskColor(@ColorInt int maskColor) {
-        mMaskColor = ColorStateList.valueOf(maskColor);
-        updateColors();
+        setMaskColor(ColorStateList.valueOf(maskColor));
     }
 
     public void setMaskColor(ColorStateList color) {
         if (color == null) {
             throw new NullPointerException();
         }
-        mMaskColor = color;
-        updateColors();
+        mRoundedDrawable.setMaskColor(color);
+        mRoundedDrawable.setState(getDrawableState());
+        invalidateRenderCache();
+        invalidate();
     }
 
     private void updateColors() {
-        boolean inval = false;
-        final int[] drawableState = getDrawableState();
-        int color = mMaskColor.getColorForState(drawableState, 0);
-        if (color != mCurMaskColor) {
-            mCurMaskColor = color;
-            mMaskPaint.setColor(mCurMaskColor);
-            inval = true;
-        }
-        if (inval) {
+        if (mRoundedDrawable.setState(getDrawableState())) {
+            invalidateRenderCache();
+            invalidate();
+        }
+    }
+
+    /**
+     * 开始批量修改圆角、边框等几何属性,直到{@link #commitUpdate()}才重新计算一次几何数据.
+     * 可以嵌套调用.
+     */
+    public void beginUpdate() {
+        mUpdateDepth++;
+    }
+
+    /**
+     * 结束批量修改,有属性变化时立即重新计算一次几何数据.
+     */
+    public void commitUpdate() {
+        if (mUpdateDepth == 0) {
+            throw new IllegalStateException("commitUpdate() without beginUpdate()");
+        }
+        if (--mUpdateDepth == 0 && mGeometryDirty) {
+            updateDrawable();
+        }
+    }
+
+    /**
+     * 几何数据实际重新计算的次数.
+     */
+    @VisibleForTesting
+    public int getGeometryUpdateCount() {
+        return mGeometryUpdateCount;
+    }
+
+    /**
+     * 几何属性变化时只标记,在下一次绘制前的onPreDraw中统一重新计算,同一帧内的多次修改只计算一次.
+     */
+    private void requestGeometryUpdate() {
+        mGeometryDirty = true;
+        if (mUpdateDepth == 0 && mHaveFrame) {
             invalidate();
         }
     }
 
     public void setTopLeftRadii(float radii) {
+        mRadiiAnimating = false;
         if (mBorderRadii[TOP_LEFT] == radii) return;
         mBorderRadii[TOP_LEFT] = mBorderRadii[TOP_LEFT+1] = radii;
-        mDrawableRadii[TOP_LEFT] = mDrawableRadii[TOP_LEFT+1] = radii;
-        updateDrawable();
+        requestGeometryUpdate();
     }
 
     public void setTopRightRadii(float radii) {
+        mRadiiAnimating = false;
         if (mBorderRadii[TOP_RIGHT] == radii) return;
         mBorderRadii[TOP_RIGHT] = mBorderRadii[TOP_RIGHT+1] = radii;
-        mDrawableRadii[TOP_RIGHT] = mDrawableRadii[TOP_RIGHT+1] = radii;
-        updateDrawable();
+        requestGeometryUpdate();
     }
 
     public void setBottomLeftRadii(float radii) {
+        mRadiiAnimating = false;
         if (mBorderRadii[BOTTOM_LEFT] == radii) return;
         mBorderRadii[BOTTOM_LEFT] = mBorderRadii[BOTTOM_LEFT+1] = radii;
-        mDrawableRadii[BOTTOM_LEFT] = mDrawableRadii[BOTTOM_LEFT+1] = radii;
-        updateDrawable();
+        requestGeometryUpdate();
     }
 
     public void setBottomRightRadii(float radii) {
+        mRadiiAnimating = false;
         if (mBorderRadii[BOTTOM_RIGHT] == radii) return;
         mBorderRadii[BOTTOM_RIGHT] = mBorderRadii[BOTTOM_RIGHT+1] = radii;
-        mDrawableRadii[BOTTOM_RIGHT] = mDrawableRadii[BOTTOM_RIGHT+1] = radii;
-        updateDrawable();
+        requestGeometryUpdate();
     }
 
     public void setCornerRadii(float topLeft, float topRight, float bottomRight, float bottomLeft) {
-        if (mBorderRadii[TOP_LEFT] != topLeft || mBorderRadii[TOP_RIGHT] != TOP_RIGHT
+        mRadiiAnimating = false;
+        if (mBorderRadii[TOP_LEFT] != topLeft || mBorderRadii[TOP_RIGHT] != topRight
                 || mBorderRadii[BOTTOM_RIGHT] != bottomRight || mBorderRadii[BOTTOM_LEFT] != bottomLeft) {
             updateRadii(mBorderRadii,topLeft,topRight,bottomRight,bottomLeft);
-            updateRadii(mDrawableRadii,topLeft,topRight,bottomRight,bottomLeft);
-            updateDrawable();
+            requestGeometryUpdate();
         }
     }
 
@@ -171,6 +462,105 @@ public class RoundedImageView extends AppCompatImageView {
         cornerRadii[BOTTOM_LEFT] = cornerRadii[BOTTOM_LEFT+1] = bottomLeft;
     }
 
+    /**
+     * 四个圆角动画到同一个半径.
+     */
+    public void animateCornerRadii(float radius, long duration, @Nullable Interpolator interpolator) {
+        animateCornerRadii(radius, radius, radius, radius, duration, interpolator);
+    }
+
+    /**
+     * 圆角动画,跟随屏幕刷新逐帧更新,动画过程中不分配内存,也不会污染共享的几何缓存.
+     * 统一圆角使用轮廓裁剪时每帧只更新轮廓,不构建Path.
+     */
+    public void animateCornerRadii(float topLeft, float topRight, float bottomRight, float bottomLeft,
+                                   long duration, @Nullable Interpolator interpolator) {
+        for (int i = 0; i < RoundedGeometry.DIRECTION.length; i++) {
+            mRadiiFrom[i] = mBorderRadii[RoundedGeometry.DIRECTION[i]];
+        }
+        mRadiiTo[0] = topLeft;
+        mRadiiTo[1] = topRight;
+        mRadiiTo[2] = bottomRight;
+        mRadiiTo[3] = bottomLeft;
+        mRadiiStartTime = android.view.animation.AnimationUtils.currentAnimationTimeMillis();
+        mRadiiDuration = Math.max(0, duration);
+        mRadiiInterpolator = interpolator != null ? interpolator : AnimationUtils.LINEAR_INTERPOLATOR;
+        mRadiiAnimating = true;
+        startGeometryAnimation();
+    }
+
+    /**
+     * 边框宽度动画,和圆角动画共用同一个帧回调.
+     */
+    public void animateBorderSize(int borderSize, long duration, @Nullable Interpolator interpolator) {
+        mBorderFrom = mBorderSize;
+        mBorderTo = borderSize;
+        mBorderStartTime = android.view.animation.AnimationUtils.currentAnimationTimeMillis();
+        mBorderDuration = Math.max(0, duration);
+        mBorderInterpolator = interpolator != null ? interpolator : AnimationUtils.LINEAR_INTERPOLATOR;
+        mBorderAnimating = true;
+        startGeometryAnimation();
+    }
+
+    public boolean isGeometryAnimating() {
+        return mRadiiAnimating || mBorderAnimating;
+    }
+
+    /**
+     * 停止圆角和边框动画,保持当前的值.
+     */
+    public void cancelGeometryAnimation() {
+        if (isGeometryAnimating()) {
+            mRadiiAnimating = false;
+            mBorderAnimating = false;
+            removeCallbacks(mGeometryAnimationRunnable);
+            requestGeometryUpdate();
+        }
+    }
+
+    private void startGeometryAnimation() {
+        removeCallbacks(mGeometryAnimationRunnable);
+        if (ViewCompat.isAttachedToWindow(this)) {
+            ViewCompat.postOnAnimation(this, mGeometryAnimationRunnable);
+        } else {
+            //没有依附窗口时直接跳到结束值
+            doGeometryAnimationFrame(Long.MAX_VALUE);
+        }
+    }
+
+    private void doGeometryAnimationFrame() {
+        doGeometryAnimationFrame(android.view.animation.AnimationUtils.currentAnimationTimeMillis());
+    }
+
+    private void doGeometryAnimationFrame(long now) {
+        if (mRadiiAnimating) {
+            float fraction = getAnimationFraction(now, mRadiiStartTime, mRadiiDuration, mRadiiInterpolator);
+            for (int i = 0; i < RoundedGeometry.DIRECTION.length; i++) {
+                final int index = RoundedGeometry.DIRECTION[i];
+                mBorderRadii[index] = mBorderRadii[index + 1] = AnimationUtils.lerp(mRadiiFrom[i], mRadiiTo[i], fraction);
+            }
+            mRadiiAnimating = now - mRadiiStartTime < mRadiiDuration;
+        }
+        if (mBorderAnimating) {
+            float fraction = getAnimationFraction(now, mBorderStartTime, mBorderDuration, mBorderInterpolator);
+            mBorderSize = Math.round(AnimationUtils.lerp(mBorderFrom, mBorderTo, fraction));
+            mBorderAnimating = now - mBorderStartTime < mBorderDuration;
+        }
+        //动画结束时回到共享缓存的几何数据
+        updateDrawable();
+        if (isGeometryAnimating()) {
+            ViewCompat.postOnAnimation(this, mGeometryAnimationRunnable);
+        }
+    }
+
+    private static float getAnimationFraction(long now, long startTime, long duration, Interpolator interpolator) {
+        if (duration <= 0) {
+            return 1f;
+        }
+        float fraction = Math.max(0f, Math.min((now - startTime) / (float) duration, 1f));
+        return interpolator.getInterpolation(fraction);
+    }
+
     public boolean isBorderOverlay() {
         return mBorderOverlay;
     }
@@ -178,22 +568,29 @@ public class RoundedImageView extends AppCompatImageView {
     public void setBorderOverlay(boolean borderOverlay) {
         if (mBorderOverlay != borderOverlay) {
             mBorderOverlay = borderOverlay;
-            updateDrawable();
+            requestGeometryUpdate();
         }
     }
 
     public void setBorderColor(@ColorInt int borderColor) {
-        if (mBorderPaint.getColor() != borderColor) {
-            mBorderPaint.setColor(borderColor);
+        final int oldColor = mRoundedDrawable.getBorderColor();
+        if (oldColor != borderColor) {
+            final boolean opaqueChanged = Color.alpha(oldColor) != Color.alpha(borderColor);
+            mRoundedDrawable.setBorderColor(borderColor);
+            invalidateRenderCache();
+            if (opaqueChanged && hasBorder()) {
+                //边框透明度会影响能否使用轮廓裁剪
+                requestGeometryUpdate();
+            }
             invalidate();
         }
     }
 
     public void setBorderSize(int borderSize) {
+        mBorderAnimating = false;
         if (mBorderSize != borderSize) {
             mBorderSize = borderSize;
-            mBorderPaint.setStrokeWidth(mBorderSize);
-            updateDrawable();
+            requestGeometryUpdate();
         }
     }
 
@@ -204,10 +601,46 @@ public class RoundedImageView extends AppCompatImageView {
     public void setOval(boolean oval) {
         if (mIsOval != oval) {
             mIsOval = oval;
-            updateDrawable();
+            requestGeometryUpdate();
+        }
+    }
+
+    public int getCornerStyle() {
+        return mCornerStyle;
+    }
+
+    /**
+     * 设置圆角样式,{@link #CORNER_STYLE_CONTINUOUS}使用连续曲率(超椭圆)圆角,圆角向边上延伸,过渡更平滑.
+     * 连续曲率圆角不能使用轮廓裁剪.
+     */
+    public void setCornerStyle(int cornerStyle) {
+        if (mCornerStyle != cornerStyle) {
+            mCornerStyle = cornerStyle;
+            requestGeometryUpdate();
+        }
+    }
+
+    public float getCornerSmoothing() {
+        return mCornerSmoothing;
+    }
+
+    /**
+     * 连续曲率圆角的平滑度,0到1,0和普通圆角相同,默认0.6.
+     */
+    public void setCornerSmoothing(float smoothing) {
+        smoothing = Math.max(0, Math.min(1, smoothing));
+        if (mCornerSmoothing != smoothing) {
+            mCornerSmoothing = smoothing;
+            if (mCornerStyle == CORNER_STYLE_CONTINUOUS) {
+                requestGeometryUpdate();
+            }
         }
     }
 
+    private float getEffectiveSmoothing() {
+        return mCornerStyle == CORNER_STYLE_CONTINUOUS && !mIsOval ? mCornerSmoothing : 0;
+    }
+
     @Override
     public void setScaleType(ScaleType scaleType) {
         if (!mSupportRounded) {
@@ -230,163 +663,1030 @@ public class RoundedImageView extends AppCompatImageView {
         initBitmap();
     }
 
+    /**
+     * 在后台线程解码图片文件,见{@link #setImageStream(InputStream, String)}.
+     */
+    public void setImageFile(@NonNull File file) {
+        loadImage(BitmapDecoder.fromFile(file));
+    }
+
+    /**
+     * 在后台线程解码content、file、android.resource的Uri,见{@link #setImageStream(InputStream, String)}.
+     * 和{@link #setImageURI(Uri)}不同,不在主线程解码,也不按原图尺寸解码.
+     */
+    public void setImageUri(@NonNull Uri uri) {
+        loadImage(BitmapDecoder.fromUri(getContext(), uri));
+    }
+
+    /**
+     * 在后台线程解码数据流,解码完成后关闭并释放读取的数据.
+     * 数据流只能读取一次,分离窗口时释放位图后,重新依附不会重新解码,需要重新设置图片.
+     * 按图片区域的CENTER_CROP尺寸解码:先按2的幂采样,再缩放到刚好覆盖图片区域,位图Config按{@link #getBitmapConfig()}选择.
+     * 控件还没有确定尺寸时等到布局后再解码,解码完成前显示占位色.
+     * 同一来源、同一尺寸的并发请求只解码一次.
+     * @param sourceId 数据流的来源标识,用于合并相同来源的请求,为null时不合并
+     */
+    public void setImageStream(@NonNull InputStream stream, @Nullable String sourceId) {
+        loadImage(BitmapDecoder.fromStream(stream, sourceId));
+    }
+
+    /**
+     * 分块显示超大图片,用于横幅、可缩放的封面等解码整张图片会占用过多内存的场景.
+     * 只解码和可见区域相交的块,块按当前缩放比例采样后合成到一张图片区域大小的位图上再做圆角处理,
+     * 内存占用只和控件尺寸有关.块解码完成前显示低分辨率的底图.
+     */
+    public void setTiledImageFile(@NonNull File file) {
+        loadTiledImage(BitmapDecoder.fromFile(file));
+    }
+
+    /**
+     * 分块显示超大图片,见{@link #setTiledImageFile(File)}.
+     */
+    public void setTiledImageUri(@NonNull Uri uri) {
+        loadTiledImage(BitmapDecoder.fromUri(getContext(), uri));
+    }
+
+    /**
+     * 分块显示时的缩放和平移,没有分块显示的图片时不生效.
+     * @param zoom 相对CENTER_CROP的放大倍数,小于1时按1处理
+     * @param focusX 可见区域的中心在图片中的水平位置,0到1
+     * @param focusY 可见区域的中心在图片中的垂直位置,0到1
+     */
+    public void setTiledZoom(float zoom, float focusX, float focusY) {
+        if (mTiledImage != null) {
+            mTiledImage.setZoom(zoom, focusX, focusY);
+        }
+    }
+
+    public boolean isTiledImage() {
+        return mTiledImage != null;
+    }
+
+    private void loadTiledImage(BitmapDecoder.Source source) {
+        setImageDrawable(null);
+        mTiledImage = new TiledImageLoader(source, mTiledListener);
+        updateTiledViewport();
+    }
+
+    private void updateTiledViewport() {
+        if (mTiledImage != null && mHaveFrame) {
+            mTiledImage.setViewport(getWidth() - getPaddingLeft() - getPaddingRight(),
+                    getHeight() - getPaddingTop() - getPaddingBottom());
+        }
+    }
+
+    private void releaseTiledImage() {
+        if (mTiledImage != null) {
+            setBitmap(null, false);
+            mTiledImage.release();
+            mTiledImage = null;
+        }
+    }
+
+    /**
+     * 设置完整图片准备好之前显示的低分辨率预览(例如图片内嵌的缩略图或者模糊的占位图),按同样的圆角立即显示,
+     * 完整图片准备好后淡入,淡入期间复用同一份几何数据,不重新构建Path,每一帧也不分配对象.
+     * 需要在{@link #setImageFile(File)}等方法之后调用,重新设置图片时会清除预览;图片已经可以显示时忽略.
+     */
+    public void setPreviewBitmap(@Nullable Bitmap preview) {
+        if (preview != null && (mBitmap != null || mOutlineClip || mRoundedDrawable == null)) {
+            //已经有内容,不需要预览
+            return;
+        }
+        if (mPreview == preview) {
+            return;
+        }
+        if (mPreview != null && !mPreviewReleased) {
+            SharedBitmapRegistry.release(mPreview);
+        }
+        mPreview = preview;
+        mPreviewReleased = false;
+        invalidateRenderCache();
+        if (mCrossFading) {
+            //淡入被打断
+            mCrossFading = false;
+            mRoundedDrawable.setAlpha(255);
+        }
+        if (preview != null) {
+            if (mPreviewDrawable == null) {
+                mPreviewDrawable = new RoundedDrawable(getResources(), null);
+            }
+            //边框和遮罩只由完整图片绘制
+            mPreviewDrawable.setShaderState(SharedBitmapRegistry.acquire(preview, null, false));
+        } else if (mPreviewDrawable != null) {
+            mPreviewDrawable.setShaderState(null);
+        }
+        invalidate();
+    }
+
+    /**
+     * 预览切换到完整图片的淡入时长,0表示直接切换.
+     */
+    public void setCrossFadeDuration(int duration) {
+        mCrossFadeDuration = Math.max(0, duration);
+    }
+
+    public int getCrossFadeDuration() {
+        return mCrossFadeDuration;
+    }
+
+    public boolean isRenderCacheEnabled() {
+        return mRenderCacheEnabled;
+    }
+
+    /**
+     * 软件绘制时缓存圆角图片、边框和遮罩的绘制结果,父布局动画等导致的重绘直接使用缓存,不再重新绘制Path和BitmapShader.
+     * 硬件加速时不生效:父布局动画只重放控件已经记录的DisplayList,不会重新调用onDraw,额外的硬件层只会增加显存和一次合成.
+     * 几何数据、图片内容或者按下状态变化时缓存失效;圆角动画、淡入和动画Drawable期间不使用缓存.
+     * 适合绑定后很少变化的头像,每个控件额外占用一份控件大小的内存.
+     */
+    public void setRenderCacheEnabled(boolean enabled) {
+        if (mRenderCacheEnabled != enabled) {
+            mRenderCacheEnabled = enabled;
+            if (!enabled) {
+                releaseRenderCache();
+            }
+            invalidate();
+        }
+    }
+
+    /**
+     * 软件绘制的缓存重建次数,用于对比开启缓存后的绘制次数.
+     */
+    public int getRenderCacheBuildCount() {
+        return mRenderCacheBuildCount;
+    }
+
+    /**
+     * 绘制内容发生变化,下一次绘制时重建软件缓存.
+     */
+    private void invalidateRenderCache() {
+        mRenderCacheValid = false;
+    }
+
+    /**
+     * 内容每一帧都在变化时缓存没有意义.
+     */
+    private boolean isRenderDynamic() {
+        return isGeometryAnimating() || mCrossFading || isAnimatedContent();
+    }
+
+    private void releaseRenderCache() {
+        if (mRenderCache != null) {
+            mRenderCacheCanvas.setBitmap(null);
+            getBitmapPool().put(mRenderCache);
+            mRenderCache = null;
+        }
+        mRenderCacheValid = false;
+    }
+
+    private void drawRenderCache(Canvas canvas, RoundedGeometry geometry) {
+        final int width = getWidth();
+        final int height = getHeight();
+        if (mRenderCache != null && (mRenderCache.getWidth() != width || mRenderCache.getHeight() != height)) {
+            releaseRenderCache();
+        }
+        if (mRenderCache == null) {
+            mRenderCache = getBitmapPool().get(width, height, Bitmap.Config.ARGB_8888);
+            if (mRenderCacheCanvas == null) {
+                mRenderCacheCanvas = new Canvas();
+            }
+            mRenderCacheCanvas.setBitmap(mRenderCache);
+        }
+        if (!mRenderCacheValid) {
+            mRenderCache.eraseColor(Color.TRANSPARENT);
+            drawRounded(mRenderCacheCanvas, geometry);
+            mRenderCacheValid = true;
+            mRenderCacheBuildCount++;
+        }
+        canvas.drawBitmap(mRenderCache, 0, 0, null);
+    }
+
+    private void endCrossFade() {
+        setPreviewBitmap(null);
+        if (mGeometry != null && canUseOutlineClip(mGeometry)) {
+            //淡入期间关闭了轮廓裁剪,下一帧切换回来,从缓存中取回同一份几何数据,不会重新构建Path
+            requestGeometryUpdate();
+        }
+    }
+
+    /**
+     * 群头像:把多个成员头像按{@link #setGroupLayout(int)}排列合成到一张位图上,再做圆角/圆形处理.
+     * 合成结果按成员id、图片区域尺寸和排列方式缓存,其他控件显示同一组成员时直接复用.
+     * 控件还没有确定尺寸时等到布局后再合成,尺寸变化时重新合成.
+     * @param memberIds 成员id,和avatars一一对应
+     * @param avatars 成员头像,为null的位置只显示背景色,这样的结果不会被缓存.命中缓存时不会使用,控件会持有引用
+     */
+    public void setGroupAvatars(@NonNull String[] memberIds, @NonNull Bitmap[] avatars) {
+        if (memberIds.length != avatars.length) {
+            throw new IllegalArgumentException("memberIds.length != avatars.length");
+        }
+        setImageDrawable(null);
+        mGroupMemberIds = memberIds.clone();
+        mGroupAvatars = avatars.clone();
+        updateGroupAvatar();
+    }
+
+    /**
+     * 只按成员id显示已经合成的群头像,不需要加载成员头像.
+     * @return 控件已经确定尺寸且命中缓存时返回true,否则调用方需要加载头像后调用{@link #setGroupAvatars(String[], Bitmap[])}
+     */
+    public boolean setCachedGroupAvatar(@NonNull String[] memberIds) {
+        final String key = createGroupKey(memberIds);
+        final Bitmap composite = key != null ? GroupAvatarComposer.get(key) : null;
+        if (composite == null) {
+            return false;
+        }
+        showGroupComposite(composite, key, memberIds.clone(), null);
+        return true;
+    }
+
+    public int getGroupLayout() {
+        return mGroupLayout;
+    }
+
+    /**
+     * 群头像的排列方式:{@link #GROUP_LAYOUT_GRID}宫格,最多9个;{@link #GROUP_LAYOUT_SPLIT}分割,最多4个.
+     */
+    public void setGroupLayout(int layout) {
+        if (mGroupLayout != layout) {
+            mGroupLayout = layout;
+            updateGroupAvatar();
+        }
+    }
+
+    /**
+     * 群头像的背景色,显示在间隔和没有头像的位置.
+     */
+    public void setGroupBackgroundColor(@ColorInt int color) {
+        if (mGroupBackgroundColor != color) {
+            mGroupBackgroundColor = color;
+            updateGroupAvatar();
+        }
+    }
+
+    private String createGroupKey(String[] memberIds) {
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (!mHaveFrame || width <= 0 || height <= 0) {
+            return null;
+        }
+        return GroupAvatarComposer.createKey(memberIds, width, height, mGroupLayout, mGroupBackgroundColor);
+    }
+
+    private void updateGroupAvatar() {
+        if (mGroupMemberIds == null) {
+            return;
+        }
+        final String key = createGroupKey(mGroupMemberIds);
+        if (key == null || key.equals(mGroupKey)) {
+            return;
+        }
+        final Bitmap cached = GroupAvatarComposer.get(key);
+        if (cached != null) {
+            showGroupComposite(cached, key, mGroupMemberIds, mGroupAvatars);
+            return;
+        }
+        if (mGroupAvatars == null) {
+            //只按id显示的缓存结果没有头像,不能重新合成
+            return;
+        }
+        final Bitmap composite = GroupAvatarComposer.compose(key, mGroupAvatars,
+                getWidth() - getPaddingLeft() - getPaddingRight(),
+                getHeight() - getPaddingTop() - getPaddingBottom(), mGroupLayout, mGroupBackgroundColor);
+        showGroupComposite(composite, key, mGroupMemberIds, mGroupAvatars);
+        //控件已经持有自己的引用
+        SharedBitmapRegistry.release(composite);
+    }
+
+    private void showGroupComposite(Bitmap composite, String key, String[] memberIds, Bitmap[] avatars) {
+        setImageDrawable(new BitmapDrawable(getResources(), composite));
+        //setImageDrawable会清空图片来源,显示后再记录
+        mGroupMemberIds = memberIds;
+        mGroupAvatars = avatars;
+        mGroupKey = key;
+        mDecodedBitmap = composite;
+    }
+
+    private void loadImage(BitmapDecoder.Source source) {
+        setImageDrawable(null);
+        mDecodeSource = source;
+        startDecode();
+    }
+
+    private void startDecode() {
+        if (mDecodeSource == null || mDecodeTask != null) {
+            return;
+        }
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (!mHaveFrame || width <= 0 || height <= 0) {
+            //等到setFrame确定尺寸后再解码
+            return;
+        }
+        //解码结果是不可变的HARDWARE位图时,软件绘制会走drawSoftwareFallback
+        boolean hardwareAllowed = isHardwareAccelerated() && getLayerType() != LAYER_TYPE_SOFTWARE;
+        mDecodeTask = BitmapDecoder.submit(mDecodeSource, width, height, getBitmapConfig(), hardwareAllowed,
+                mDecodeCallback);
+    }
+
+    private void cancelDecode() {
+        mDecodeSource = null;
+        if (mDecodeTask != null) {
+            mDecodeTask.cancel();
+            mDecodeTask = null;
+        }
+    }
+
+    /**
+     * 显示{@link RoundedThumbnailStore}中已经圆角处理过的缩略图,尺寸和图片区域一致时直接绘制,不再做圆角处理.
+     * 缩略图来自复用池,控件换图或分离窗口后归还,重新依附时需要重新加载.
+     */
+    public void setRoundedThumbnail(Bitmap thumbnail) {
+        //先按复用池的位图登记,setImageBitmap增加的引用沿用这个登记方式
+        SharedBitmapRegistry.acquire(thumbnail, null, true);
+        setImageBitmap(thumbnail);
+        SharedBitmapRegistry.release(thumbnail);
+        mDecodedBitmap = thumbnail;
+        mPreRounded = true;
+        updateDrawable();
+    }
+
+    void setThumbnailRequest(String sourceId) {
+        mThumbnailRequest = sourceId;
+    }
+
+    String getThumbnailRequest() {
+        return mThumbnailRequest;
+    }
+
+    /**
+     * 缩略图的key:图片区域尺寸、圆角、边框,控件还没有确定尺寸时返回false.
+     */
+    boolean appendThumbnailKey(StringBuilder sb) {
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (!mHaveFrame || width <= 0 || height <= 0) {
+            return false;
+        }
+        sb.append(width).append('x').append(height);
+        if (mIsOval) {
+            sb.append("|oval");
+        } else {
+            for (int direction : RoundedGeometry.DIRECTION) {
+                sb.append('|').append(mBorderRadii[direction]);
+            }
+            if (getEffectiveSmoothing() > 0) {
+                sb.append("|s").append(mCornerSmoothing);
+            }
+        }
+        sb.append('|').append(mBorderSize).append('|').append(Integer.toHexString(mRoundedDrawable.getBorderColor()))
+                .append('|').append(mBorderOverlay);
+        //缩略图按图片矩阵排布,缩放方式不同时像素也不同
+        final ScaleType scaleType = getScaleType();
+        sb.append('|').append(scaleType);
+        if (scaleType == ScaleType.MATRIX) {
+            sb.append(getImageMatrix().toShortString());
+        }
+        return true;
+    }
+
+    /**
+     * 按当前的几何数据绘制一张不带按下状态的圆角图片,位图来自复用池.
+     */
+    Bitmap renderRoundedThumbnail() {
+        if (mUpdateDepth > 0) {
+            //批量修改还没有提交,key已经是新的属性
+            return null;
+        }
+        if (mGeometryDirty) {
+            //修改的圆角、边框在下一次绘制前才生效,先应用到几何数据,像素和key一致
+            updateDrawable();
+        }
+        final RoundedGeometry geometry = mGeometry;
+        final Drawable drawable = getDrawable();
+        if (geometry == null || drawable == null) {
+            return null;
+        }
+        final int width = (int) geometry.key.width;
+        final int height = (int) geometry.key.height;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Bitmap source = mBitmap;
+        boolean tempSource = false;
+        try {
+            if (source == null || BitmapConfigPolicy.isHardware(source)) {
+                //轮廓裁剪时没有光栅化的位图,按ImageView的矩阵绘制到图片区域大小
+                source = getBitmapPool().get(width, height, Bitmap.Config.ARGB_8888);
+                tempSource = true;
+                Canvas canvas = new Canvas(source);
+                canvas.concat(getImageMatrix());
+                drawable.draw(canvas);
+            }
+            RoundedDrawable renderer = new RoundedDrawable(getResources(), source);
+            renderer.setBorderColor(mRoundedDrawable.getBorderColor());
+            Bitmap thumbnail = getBitmapPool().get(width, height, Bitmap.Config.ARGB_8888);
+            renderer.drawRounded(new Canvas(thumbnail), geometry);
+            return thumbnail;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "render thumbnail failed", e);
+            return null;
+        } finally {
+            if (tempSource) {
+                getBitmapPool().put(source);
+            }
+        }
+    }
+
     @Override
     public void setImageResource(int resId) {
+        resetImageSource();
         super.setImageResource(resId);
         initBitmap();
     }
 
+    @Override
+    public void setImageURI(@Nullable Uri uri) {
+        resetImageSource();
+        super.setImageURI(uri);
+        initBitmap();
+    }
+
     @Override
     public void setImageDrawable(@Nullable Drawable drawable) {
+        if (mDecodedBitmap != null && drawable == getDrawable()) {
+            //重新设置同一个Drawable
+            super.setImageDrawable(drawable);
+            initBitmap();
+            return;
+        }
+        resetImageSource();
         super.setImageDrawable(drawable);
         initBitmap();
     }
 
+    private void resetImageSource() {
+        if (!mKeepPreview) {
+            setPreviewBitmap(null);
+        }
+        mPreRounded = false;
+        mThumbnailRequest = null;
+        cancelDecode();
+        releaseTiledImage();
+        //引用在initBitmap更换位图时释放,没有其他控件引用时归还到复用池,供下一次解码通过inBitmap复用
+        mDecodedBitmap = null;
+        mDecodedSource = null;
+        mGroupMemberIds = null;
+        mGroupAvatars = null;
+        mGroupKey = null;
+    }
+
     @Override
     protected boolean setFrame(int l, int t, int r, int b) {
         boolean change = super.setFrame(l,t,r,b);
         mHaveFrame = true;
-        updateDrawable();
+        updateTiledViewport();
+        updateGroupAvatar();
+        if (change || isGeometrySizeChanged()) {
+            //尺寸没有变化的布局不需要重新计算,也不需要重绘
+            requestGeometryUpdate();
+        }
+        startDecode();
         return change;
     }
 
+    private boolean isGeometrySizeChanged() {
+        if (mGeometry == null) {
+            return true;
+        }
+        final int availableWidth = getMeasuredWidth() - getPaddingLeft() - getPaddingRight();
+        final int availableHeight = getMeasuredHeight() - getPaddingTop() - getPaddingBottom();
+        return mGeometry.key.width != availableWidth || mGeometry.key.height != availableHeight;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnPreDrawListener(mPreDrawListener);
+        mDetached = false;
+        updateContentAnimation(isContentVisible());
+        if (mPreviewReleased) {
+            mPreviewReleased = false;
+            if (mPreview.isRecycled()) {
+                mPreview = null;
+                mPreviewDrawable.setShaderState(null);
+            } else {
+                mPreviewDrawable.setShaderState(SharedBitmapRegistry.acquire(mPreview, null, false));
+            }
+        }
+        //分离时位图已归还,重新依附时重新光栅化;群头像从缓存中取回或重新合成
+        updateGroupAvatar();
+        if (mBitmap == null && (getDrawable() != null || mTiledImage != null)) {
+            initBitmap();
+        }
+        //分离时释放了几何数据,重新依附后在下一次绘制前从缓存中取回
+        if (mGeometry == null) {
+            requestGeometryUpdate();
+        }
+        startDecode();
+    }
+
     @Override
     protected void onDetachedFromWindow() {
-        recycleBitmap();
+        getViewTreeObserver().removeOnPreDrawListener(mPreDrawListener);
+        mDetached = true;
+        updateContentAnimation(false);
+        if (isGeometryAnimating()) {
+            removeCallbacks(mGeometryAnimationRunnable);
+            doGeometryAnimationFrame(Long.MAX_VALUE);
+        }
+        cancelRasterTask();
+        releaseRenderCache();
+        if (mDecodeTask != null) {
+            //保留mDecodeSource,重新依附时重新解码
+            mDecodeTask.cancel();
+            mDecodeTask = null;
+        }
+        releaseBitmap();
+        releaseGeometry();
         super.onDetachedFromWindow();
     }
 
-    private void recycleBitmap() {
-        if (mBitmap != null && mBitmap.isMutable() &&!mBitmap.isRecycled()) {
-            mBitmap.recycle();
+    private void releaseGeometry() {
+        if (mGeometry != null) {
+            if (mGeometry != mAnimatingGeometry) {
+                RoundedGeometryCache.release(mGeometry);
+            }
+            mGeometry = null;
+        }
+    }
+
+    /**
+     * 分离窗口时释放在{@link SharedBitmapRegistry}中的所有引用,不回收位图:其他控件可能仍在显示同一个位图.
+     * 分离后直接丢弃的控件不会让位图一直留在registry中.
+     * 自己解码或合成的位图在最后一个引用释放后会回到复用池,不能继续留在BitmapDrawable中,
+     * 解除绑定后保留来源,重新依附时重新解码或者从缓存中取回.
+     */
+    private void releaseBitmap() {
+        if (mCrossFading) {
+            //完整图片已经显示,不再需要预览
+            setPreviewBitmap(null);
+        } else if (mPreview != null && !mPreviewReleased) {
+            mPreviewDrawable.setShaderState(null);
+            SharedBitmapRegistry.release(mPreview);
+            mPreviewReleased = true;
+        }
+        if (mDecodedBitmap != null) {
+            final BitmapDecoder.Source source = mDecodedSource;
+            final String[] memberIds = mGroupMemberIds;
+            final Bitmap[] avatars = mGroupAvatars;
+            mKeepPreview = true;
+            setImageDrawable(null);
+            mKeepPreview = false;
+            //setImageDrawable清空了图片来源,恢复用于重新依附
+            mDecodeSource = source;
+            mGroupMemberIds = memberIds;
+            mGroupAvatars = avatars;
+        } else if (mBitmap != null) {
+            setBitmap(null, false);
+        }
+    }
+
+    private void cancelRasterTask() {
+        if (mRasterTask != null) {
+            mRasterTask.cancel();
+            mRasterTask = null;
+        }
+    }
+
+    /**
+     * 更换位图并在{@link SharedBitmapRegistry}中登记引用,旧位图的最后一个引用释放时,复用池的位图归还到池中.
+     */
+    private void setBitmap(Bitmap bitmap, boolean fromPool) {
+        if (mBitmap != bitmap) {
+            final Bitmap old = mBitmap;
+            mBitmap = bitmap;
+            invalidateRenderCache();
+            if (old == null && bitmap != null && mPreview != null) {
+                //淡入从第一次绘制开始计时
+                mCrossFading = mCrossFadeDuration > 0;
+                mCrossFadeStartTime = -1;
+                if (!mCrossFading) {
+                    setPreviewBitmap(null);
+                }
+            }
+            mRoundedDrawable.setShaderState(bitmap != null
+                    ? SharedBitmapRegistry.acquire(bitmap, null, fromPool) : null);
+            if (old != null) {
+                SharedBitmapRegistry.release(old);
+            }
+        }
+        mBitmapFromPool = fromPool;
+        mRasterSource = null;
+    }
+
+    private void releasePooledBitmap() {
+        if (mBitmapFromPool && mBitmap != null) {
+            setBitmap(null, false);
         }
     }
 
     private void initBitmap() {
+        if (mRoundedDrawable == null) {
+            //父类构造函数中设置图片时还未初始化,构造函数最后会重新调用
+            return;
+        }
         Drawable drawable = getDrawable();
+        mContentAnimationPaused = false;
+        if (!mAsyncRasterize || drawable == null || drawable instanceof BitmapDrawable) {
+            //旧的光栅化位图先归还,新的位图可能直接复用它.后台光栅化时保留旧内容直到新位图生成
+            cancelRasterTask();
+            releasePooledBitmap();
+        }
         if (drawable == null) {
-            mBitmap = null;
+            //分块显示时使用合成的位图
+            setBitmap(mTiledImage != null ? mTiledImage.getComposite() : null, false);
             invalidate();
             return;
         }
         if (drawable instanceof BitmapDrawable) {
-            mBitmap = ((BitmapDrawable) drawable).getBitmap();
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            setBitmap(bitmap != null && !bitmap.isRecycled() ? bitmap : null, false);
         } else {
-            try {
-                Bitmap bitmap;
-                if (drawable instanceof ColorDrawable) {
-                    bitmap = Bitmap.createBitmap(COLOR_DRAWABLE_SIZE,COLOR_DRAWABLE_SIZE, BITMAP_CONFIG);
-                } else {
-                    bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),drawable.getIntrinsicHeight(),BITMAP_CONFIG);
-                }
-                Canvas canvas = new Canvas(bitmap);
-                drawable.setBounds(0,0,canvas.getWidth(),canvas.getHeight());
-                drawable.draw(canvas);
-                mBitmap = bitmap;
-                mBitmapShader = null;
-            } catch (Exception e) {
-                e.printStackTrace();
+            //重新设置同一个Drawable时也需要重新光栅化
+            mRasterSource = null;
+        }
+        //其他Drawable在updateDrawable中按需光栅化,轮廓裁剪时不需要光栅化
+        updateDrawable();
+    }
+
+    private boolean isViewSizeRaster(Drawable drawable) {
+        return !(drawable instanceof BitmapDrawable) && !(drawable instanceof ColorDrawable)
+                && (mRasterizeAtViewSize || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0);
+    }
+
+    private void requestRaster(Drawable drawable, int width, int height) {
+        cancelRasterTask();
+        if (mAsyncRasterize && !(drawable instanceof ColorDrawable) && !(drawable instanceof Animatable)) {
+            mRasterTask = DrawableRasterizer.submit(getResources(), drawable, width, height,
+                    resolveBitmapConfig(drawable), mRasterCallback);
+            if (mRasterTask != null) {
                 return;
             }
         }
-        updateDrawable();
+        rasterize(drawable, width, height);
     }
 
-    private void invalidateDrawable() {
-        if (!mIsOval) {
-            mBorderPath.reset();
-            mBorderPath.addRoundRect(mBorderRectF,mBorderRadii, Path.Direction.CW);
-            mDrawablePath.reset();
-            mDrawablePath.addRoundRect(mDrawableRectF,mDrawableRadii, Path.Direction.CW);
+    private void rasterize(Drawable drawable, int width, int height) {
+        cancelRasterTask();
+        releasePooledBitmap();
+        final Bitmap.Config config = resolveBitmapConfig(drawable);
+        Bitmap bitmap = null;
+        try {
+            bitmap = getBitmapPool().get(width, height, BitmapConfigPolicy.getDrawConfig(config));
+            drawToBitmap(drawable, bitmap);
+            bitmap = BitmapConfigPolicy.toTargetConfig(bitmap, config);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "rasterize failed", e);
+            putBack(bitmap);
+            return;
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "rasterize out of memory", e);
+            putBack(bitmap);
+            return;
         }
-        invalidate();
+        setBitmap(bitmap, bitmap.isMutable());
+        mRasterSource = drawable;
     }
 
-    private boolean hasBorder() {
-        return mBorderSize > 0;
+    private static void putBack(Bitmap bitmap) {
+        if (bitmap != null) {
+            getBitmapPool().put(bitmap);
+        }
     }
 
-    private boolean hasRadii(int index) {
-        return mBorderRadii[index] > 0;
+    private void drawToBitmap(Drawable drawable, Bitmap bitmap) {
+        if (mRasterCanvas == null) {
+            mRasterCanvas = new Canvas();
+        }
+        mRasterCanvas.setBitmap(bitmap);
+        //光栅化不能影响Drawable原来的bounds
+        drawable.copyBounds(mTempBounds);
+        drawable.setBounds(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        try {
+            drawable.draw(mRasterCanvas);
+        } finally {
+            //失败时位图会归还到复用池,不能继续被Canvas引用
+            drawable.setBounds(mTempBounds);
+            mRasterCanvas.setBitmap(null);
+        }
+        mContentDirty = false;
     }
 
-    private void setDrawableRadius(int index, float radius) {
-        mDrawableRadii[index] = mDrawableRadii[index+1] = radius;
+    /**
+     * 动画Drawable的新一帧重绘到已有的位图,不重新分配位图.
+     * 同一帧内多次失效只在绘制时重绘一次,重绘频率不会超过屏幕刷新率.
+     */
+    private void redrawContent() {
+        try {
+            mBitmap.eraseColor(Color.TRANSPARENT);
+            drawToBitmap(mRasterSource, mBitmap);
+        } catch (RuntimeException e) {
+            //保留上一帧的内容
+            Log.w(TAG, "redraw content failed", e);
+        }
     }
 
-    private void setDrawableRadiusOffset(float offset) {
-        for (int direction:DIRECTION) {
-            if (hasRadii(direction)) {
-                setDrawableRadius(direction,mBorderRadii[direction]+offset);
+    @Override
+    public void invalidateDrawable(@NonNull Drawable dr) {
+        if (dr == mRasterSource && dr == getDrawable()) {
+            mContentDirty = true;
+        }
+        if (dr == getDrawable()) {
+            invalidateRenderCache();
+        }
+        super.invalidateDrawable(dr);
+    }
+
+    /**
+     * 图片是否是动画Drawable({@link Animatable},例如AnimatedVectorDrawable、AnimationDrawable、GIF).
+     * 动画的每一帧重绘到同一个位图,内存占用不随帧数增长.
+     */
+    public boolean isAnimatedContent() {
+        return getDrawable() instanceof Animatable;
+    }
+
+    /**
+     * 分离窗口或者不可见时暂停正在运行的动画,重新可见时恢复.
+     */
+    private void updateContentAnimation(boolean visible) {
+        Drawable drawable = getDrawable();
+        if (!(drawable instanceof Animatable)) {
+            return;
+        }
+        Animatable animatable = (Animatable) drawable;
+        if (!visible) {
+            if (animatable.isRunning()) {
+                animatable.stop();
+                mContentAnimationPaused = true;
             }
+        } else if (mContentAnimationPaused) {
+            mContentAnimationPaused = false;
+            animatable.start();
         }
     }
 
-    private void updateDrawable() {
-        if (mBitmap == null || !mHaveFrame) {
+    private boolean isContentVisible() {
+        return isShown() && getWindowVisibility() == VISIBLE;
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        if (mRoundedDrawable != null) {
+            updateContentAnimation(isContentVisible());
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateContentAnimation(isContentVisible());
+    }
+
+    /**
+     * 光栅化非{@link BitmapDrawable},按控件尺寸光栅化时使用图片区域的CENTER_CROP尺寸,
+     * 尺寸变化未超过{@link #RASTER_SIZE_THRESHOLD}时复用已有的位图.
+     */
+    private void ensureRaster(RectF drawableRect) {
+        Drawable drawable = getDrawable();
+        if (drawable == null || drawable instanceof BitmapDrawable) {
+            return;
+        }
+        final float rectWidth = drawableRect.width();
+        final float rectHeight = drawableRect.height();
+        final int intrinsicWidth = drawable.getIntrinsicWidth();
+        final int intrinsicHeight = drawable.getIntrinsicHeight();
+        int targetWidth;
+        int targetHeight;
+        if (drawable instanceof ColorDrawable) {
+            targetWidth = targetHeight = COLOR_DRAWABLE_SIZE;
+        } else if (!isViewSizeRaster(drawable)) {
+            targetWidth = intrinsicWidth;
+            targetHeight = intrinsicHeight;
+        } else if (intrinsicWidth > 0 && intrinsicHeight > 0) {
+            float scale = Math.max(rectWidth / intrinsicWidth, rectHeight / intrinsicHeight);
+            targetWidth = (int) Math.ceil(intrinsicWidth * scale);
+            targetHeight = (int) Math.ceil(intrinsicHeight * scale);
+        } else {
+            targetWidth = (int) Math.ceil(rectWidth);
+            targetHeight = (int) Math.ceil(rectHeight);
+        }
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return;
+        }
+        if (isRasterCurrent(drawable, targetWidth, targetHeight)) {
             return;
         }
-        if (mBitmapShader == null) {
-            mBitmapShader = new BitmapShader(mBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
-        }
-        int pLeft = getPaddingLeft();
-        int pTop = getPaddingTop();
-        int availableWidth = getMeasuredWidth() - pLeft - getPaddingRight();
-        int availableHeight = getMeasuredHeight() - pTop - getPaddingBottom();
-        //set bitmap and border bounds
-        mBorderRectF.set(pLeft,pTop,pLeft+availableWidth,pTop+availableHeight);
-        mDrawableRectF.set(mBorderRectF);
-        if (hasBorder()) {
-            float offset = mBorderSize/2f;
-            mBorderRectF.inset(offset,offset);
-            if (!mBorderOverlay) {
-                mDrawableRectF.inset(mBorderSize,mBorderSize);
-                if (!mIsOval) {
-                    setDrawableRadiusOffset(-mBorderSize);
+        requestRaster(drawable, targetWidth, targetHeight);
+    }
+
+    private boolean isRasterCurrent(Drawable drawable, int targetWidth, int targetHeight) {
+        if (mRasterTask != null) {
+            return mRasterTask.source == drawable
+                    && !exceedsRasterThreshold(mRasterTask.width, targetWidth)
+                    && !exceedsRasterThreshold(mRasterTask.height, targetHeight);
+        }
+        //mRasterSource只在光栅化得到的位图上设置,包括不进入复用池的HARDWARE位图
+        return mBitmap != null && mRasterSource == drawable
+                && !exceedsRasterThreshold(mBitmap.getWidth(), targetWidth)
+                && !exceedsRasterThreshold(mBitmap.getHeight(), targetHeight);
+    }
+
+    private static boolean exceedsRasterThreshold(int current, int target) {
+        return Math.abs(target - current) > current * RASTER_SIZE_THRESHOLD;
+    }
+
+    private boolean hasBorder() {
+        return mBorderSize > 0;
+    }
+
+    private boolean hasUniformRadii() {
+        final float radius = mBorderRadii[0];
+        for (int i = 1; i < mBorderRadii.length; i++) {
+            if (mBorderRadii[i] != radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 圆形或四个圆角相同时,API 21以上改用{@link ViewOutlineProvider}在RenderThread裁剪,
+     * 图片由ImageView原生绘制,边框直接绘制.其他情况回退到BitmapShader绘制.
+     */
+    private boolean updateOutlineClip(RoundedGeometry geometry) {
+        final boolean outlineClip = canUseOutlineClip(geometry);
+        if (outlineClip) {
+            mOutlineRadius = mIsOval ? geometry.drawableRect.width() / 2f : getOutlineRadius();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && (outlineClip || mOutlineClip)) {
+            if (outlineClip && !mOutlineClip) {
+                if (mOutlineProvider == null) {
+                    mOutlineProvider = new RoundedOutlineProvider();
                 }
+                mSavedOutlineProvider = getOutlineProvider();
+                super.setOutlineProvider(mOutlineProvider);
+                setClipToOutline(true);
+            } else if (!outlineClip) {
+                setClipToOutline(false);
+                super.setOutlineProvider(mSavedOutlineProvider);
+                mSavedOutlineProvider = null;
             } else {
-                setDrawableRadiusOffset(mBorderSize);
+                invalidateOutline();
             }
-        } else {
-            setDrawableRadiusOffset(0);
         }
-        //update image matrix
-        updateDrawableMatrix(mDrawableRectF.width(), mDrawableRectF.height());
-        invalidateDrawable();
+        mOutlineClip = outlineClip;
+        return outlineClip;
     }
 
-    private void updateDrawableMatrix(float fwidth, float fheight) {
-        int bitmapWidth = mBitmap.getWidth();
-        int bitmapHeight = mBitmap.getHeight();
-        if (bitmapWidth <= 0 || bitmapHeight <= 0) {
-            return;
+    private boolean canUseOutlineClip(RoundedGeometry geometry) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || !mOutlineClipEnabled
+                || !mSupportRounded || getDrawable() == null || !isHardwareAccelerated() || mPreRounded
+                || mCrossFading) {
+            //软件绘制不支持轮廓裁剪
+            return false;
+        }
+        if (getBackground() != null
+                || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && getForeground() != null)) {
+            //轮廓裁剪会同时裁掉背景和前景
+            return false;
+        }
+        if (mIsOval) {
+            //Outline只支持裁剪圆角矩形,椭圆只能是正圆.不覆盖图片的边框会缩小图片区域
+            return geometry.drawableRect.width() == geometry.drawableRect.height()
+                    && (!hasBorder() || mBorderOverlay);
         }
-        if (mDrawableMatrix == null) {
-            mDrawableMatrix = new Matrix();
+        if (!hasUniformRadii() || getEffectiveSmoothing() > 0) {
+            return false;
+        }
+        //覆盖图片的不透明边框完全盖住图片的边缘,按边框外沿裁剪结果一致
+        return !hasBorder() || (mBorderOverlay && Color.alpha(mRoundedDrawable.getBorderColor()) == 255);
+    }
+
+    private float getOutlineRadius() {
+        final float radius = mBorderRadii[TOP_LEFT];
+        if (hasBorder() && radius > 0) {
+            return radius + mBorderSize / 2f;
         }
-        float scale;
-        float dx = 0, dy = 0;
-        if (bitmapWidth * fheight > fwidth * bitmapHeight) {
-            scale = fheight / (float) bitmapHeight;
-            dx = (fwidth - bitmapWidth * scale) * 0.5f;
+        return radius;
+    }
+
+    public boolean isOutlineClipEnabled() {
+        return mOutlineClipEnabled;
+    }
+
+    /**
+     * 是否允许在API 21以上使用轮廓裁剪绘制圆形和统一圆角,默认开启.
+     * 设置了背景或前景时不使用轮廓裁剪,避免把它们一起裁掉.
+     * 裁剪期间控件的轮廓(包括阴影)是圆角形状,应用设置的{@link ViewOutlineProvider}在关闭裁剪后恢复,
+     * 需要一直使用自定义轮廓时可以关闭.
+     */
+    public void setOutlineClipEnabled(boolean enabled) {
+        if (mOutlineClipEnabled != enabled) {
+            mOutlineClipEnabled = enabled;
+            updateDrawable();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public void setOutlineProvider(ViewOutlineProvider provider) {
+        if (mOutlineClip) {
+            mSavedOutlineProvider = provider;
         } else {
-            scale = fwidth / (float) bitmapWidth;
-            dy = (fheight - bitmapHeight * scale) * 0.5f;
+            super.setOutlineProvider(provider);
         }
+    }
 
-        mDrawableMatrix.set(null);
-        mDrawableMatrix.setScale(scale, scale);
-        mDrawableMatrix.postTranslate((int) (dx + 0.5f) + mDrawableRectF.left, (int) (dy + 0.5f) + mDrawableRectF.top);
-        mBitmapShader.setLocalMatrix(mDrawableMatrix);
-        mDrawablePaint.setShader(mBitmapShader);
+    @SuppressWarnings("deprecation")
+    @Override
+    public void setBackgroundDrawable(Drawable background) {
+        super.setBackgroundDrawable(background);
+        //背景影响是否可以使用轮廓裁剪,View的构造方法中也会调用
+        requestGeometryUpdate();
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    @Override
+    public void setForeground(Drawable foreground) {
+        super.setForeground(foreground);
+        requestGeometryUpdate();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static class RoundedOutlineProvider extends ViewOutlineProvider {
+
+        @Override
+        public void getOutline(View view, Outline outline) {
+            RoundedImageView imageView = (RoundedImageView) view;
+            final int left = view.getPaddingLeft();
+            final int top = view.getPaddingTop();
+            final int right = view.getWidth() - view.getPaddingRight();
+            final int bottom = view.getHeight() - view.getPaddingBottom();
+            outline.setRoundRect(left, top, right, bottom, imageView.mOutlineRadius);
+        }
+    }
+
+    private void updateDrawable() {
+        if (!mHaveFrame) {
+            return;
+        }
+        rebuildGeometry();
+        invalidate();
+    }
+
+    /**
+     * 重新计算几何数据、轮廓裁剪和光栅化,不请求重绘,可以在onDraw中调用.
+     */
+    private void rebuildGeometry() {
+        mGeometryDirty = false;
+        mGeometryUpdateCount++;
+        invalidateRenderCache();
+        int availableWidth = getMeasuredWidth() - getPaddingLeft() - getPaddingRight();
+        int availableHeight = getMeasuredHeight() - getPaddingTop() - getPaddingBottom();
+        RoundedGeometry geometry;
+        if (isGeometryAnimating()) {
+            //动画每帧的几何数据都不同,原地更新独占的实例
+            if (mAnimatingGeometry == null) {
+                mAnimatingGeometry = RoundedGeometry.createMutable();
+            }
+            geometry = mAnimatingGeometry;
+            geometry.update(availableWidth, availableHeight, mBorderRadii, mBorderSize, mBorderOverlay, mIsOval,
+                    getEffectiveSmoothing());
+        } else {
+            //相同几何数据的控件共享同一份Path,命中缓存时不需要重新构建
+            geometry = RoundedGeometryCache.acquire(availableWidth, availableHeight,
+                    mBorderRadii, mBorderSize, mBorderOverlay, mIsOval, getEffectiveSmoothing());
+        }
+        releaseGeometry();
+        mGeometry = geometry;
+        if (updateOutlineClip(geometry)) {
+            //轮廓裁剪时由ImageView直接绘制Drawable,不需要光栅化的位图和BitmapShader
+            cancelRasterTask();
+            releasePooledBitmap();
+            return;
+        }
+        //Shader的矩阵由RoundedDrawable在绘制时按需更新,只有圆角变化时不会重新计算
+        ensureRaster(geometry.drawableRect);
     }
 
     @Override
     protected void drawableStateChanged() {
         super.drawableStateChanged();
-        if (mMaskColor != null && mMaskColor.isStateful()) {
-            updateColors();
-        }
+        updateColors();
     }
 
     @Override
@@ -395,37 +1695,146 @@ public class RoundedImageView extends AppCompatImageView {
             super.onDraw(canvas);
             return;
         }
-        if (mBitmap == null) {
+        if (mGeometryDirty && mUpdateDepth == 0 && mHaveFrame) {
+            //没有经过onPreDraw的绘制(例如直接调用draw生成截图),正在绘制不能再请求重绘
+            rebuildGeometry();
+        }
+        final RoundedGeometry geometry = mGeometry;
+        if (geometry == null) {
             return;
         }
-        if (mIsOval) {
-            canvas.drawOval(mDrawableRectF, mDrawablePaint);
-            drawOvalMask(canvas);
-            if (mBorderSize > 0) {
-                canvas.drawOval(mBorderRectF, mBorderPaint);
+        if (mOutlineClip) {
+            super.onDraw(canvas);
+            drawOutlineClipOverlay(canvas, geometry);
+            return;
+        }
+        if (mRenderCacheEnabled && !canvas.isHardwareAccelerated() && !isRenderDynamic()) {
+            drawRenderCache(canvas, geometry);
+            return;
+        }
+        drawRounded(canvas, geometry);
+    }
+
+    private void drawRounded(Canvas canvas, RoundedGeometry geometry) {
+        if (mBitmap == null) {
+            if (mPreview != null) {
+                drawPreview(canvas, geometry);
+            } else {
+                drawPlaceholder(canvas, geometry);
             }
-        } else {
-            drawRoundImage(canvas);
+            return;
+        }
+        if (mPreRounded && mBitmap.getWidth() == (int) geometry.key.width
+                && mBitmap.getHeight() == (int) geometry.key.height) {
+            drawPreRounded(canvas, geometry);
+            return;
+        }
+        if (mContentDirty && mBitmapFromPool && mRasterSource == getDrawable()) {
+            redrawContent();
+        }
+        if (!canvas.isHardwareAccelerated() && BitmapConfigPolicy.isHardware(mBitmap)) {
+            drawSoftwareFallback(canvas, geometry);
+            return;
+        }
+        if (mCrossFading && drawCrossFade(canvas, geometry)) {
+            return;
         }
+        //共享的几何数据以内容区域左上角为原点
+        final int saveCount = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mRoundedDrawable.drawRounded(canvas, geometry);
+        canvas.restoreToCount(saveCount);
     }
 
-    private void drawRoundImage(Canvas canvas) {
-        canvas.drawPath(mDrawablePath, mDrawablePaint);
-        drawRoundMask(canvas);
-        if (hasBorder()) {
-            canvas.drawPath(mBorderPath,mBorderPaint);
+    private void drawPreview(Canvas canvas, RoundedGeometry geometry) {
+        final int saveCount = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mPreviewDrawable.drawRounded(canvas, geometry);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * 预览不透明地绘制在下面,完整图片按进度增加透明度绘制在上面,两者共用同一份Path.
+     * 淡入结束时返回false,由调用方正常绘制图片.
+     */
+    private boolean drawCrossFade(Canvas canvas, RoundedGeometry geometry) {
+        final long now = android.view.animation.AnimationUtils.currentAnimationTimeMillis();
+        if (mCrossFadeStartTime < 0) {
+            mCrossFadeStartTime = now;
         }
+        final float fraction = (float) (now - mCrossFadeStartTime) / mCrossFadeDuration;
+        if (fraction >= 1f) {
+            endCrossFade();
+            return false;
+        }
+        final int saveCount = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mPreviewDrawable.drawRounded(canvas, geometry);
+        mRoundedDrawable.setAlpha((int) (255 * fraction));
+        mRoundedDrawable.drawRounded(canvas, geometry);
+        canvas.restoreToCount(saveCount);
+        ViewCompat.postInvalidateOnAnimation(this);
+        return true;
     }
 
-    private void drawOvalMask(Canvas canvas) {
-        if (isPressed()) {
-            canvas.drawOval(mDrawableRectF,mMaskPaint);
+    /**
+     * 轮廓裁剪时绘制按下的遮罩和边框,超出轮廓的部分会被裁剪掉.
+     */
+    private void drawOutlineClipOverlay(Canvas canvas, RoundedGeometry geometry) {
+        if (!isPressed() && !hasBorder()) {
+            return;
         }
+        final int saveCount = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mRoundedDrawable.drawOverlay(canvas, geometry, true);
+        canvas.restoreToCount(saveCount);
     }
 
-    private void drawRoundMask(Canvas canvas) {
-        if (isPressed()) {
-            canvas.drawPath(mDrawablePath,mMaskPaint);
+    /**
+     * 缩略图已经包含圆角和边框,直接绘制位图,按下时只绘制遮罩.
+     */
+    private void drawPreRounded(Canvas canvas, RoundedGeometry geometry) {
+        final int saveCount = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.drawBitmap(mBitmap, 0, 0, null);
+        mRoundedDrawable.drawMask(canvas, geometry, false);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * 软件绘制(例如{@link View#draw(Canvas)}生成截图)不支持HARDWARE位图,裁剪后由ImageView直接绘制Drawable.
+     */
+    private void drawSoftwareFallback(Canvas canvas, RoundedGeometry geometry) {
+        final int saveCount = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        if (mIsOval) {
+            if (mFallbackClipPath == null) {
+                mFallbackClipPath = new Path();
+            }
+            mFallbackClipPath.rewind();
+            mFallbackClipPath.addOval(geometry.drawableRect, Path.Direction.CW);
+            canvas.clipPath(mFallbackClipPath);
+        } else if (geometry.drawableShape == RoundedGeometry.SHAPE_RECT) {
+            canvas.clipRect(geometry.drawableRect);
+        } else {
+            canvas.clipPath(geometry.getDrawablePath());
+        }
+        canvas.translate(-getPaddingLeft(), -getPaddingTop());
+        super.onDraw(canvas);
+        canvas.restoreToCount(saveCount);
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mRoundedDrawable.drawOverlay(canvas, geometry, false);
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void drawPlaceholder(Canvas canvas, RoundedGeometry geometry) {
+        if (mPlaceholderPaint == null) {
+            return;
         }
+        final int saveCount = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        geometry.draw(canvas, RoundedGeometry.LAYER_DRAWABLE, mPlaceholderPaint);
+        canvas.restoreToCount(saveCount);
     }
-}
\ No newline at end of file
+}
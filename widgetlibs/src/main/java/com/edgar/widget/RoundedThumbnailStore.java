@@ -0,0 +1,246 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.view.View;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Created by Edgar on 2019/08/21.
+ * 持久化已经圆角处理、缩放到控件尺寸的缩略图.
+ * key由图片来源id和控件的尺寸、圆角、边框组成,热启动时直接把像素复制到复用池的位图中显示,
+ * 不需要解码和光栅化,也不需要再做圆角处理.
+ * 底层存储见{@link MappedBlobStore},读写都在单独的线程执行.
+ */
+public final class RoundedThumbnailStore implements Closeable {
+
+    private static final String TAG = "RoundedThumbnailStore";
+    private static final int FORMAT_VERSION = 1;
+    //width, height
+    private static final int HEADER_SIZE = 8;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final MappedBlobStore mBlobStore;
+    private final ExecutorService mExecutor;
+
+    public interface Callback {
+        /**
+         * 加载完成,在主线程回调.
+         * @param hit 是否命中缓存,未命中时由调用方按正常流程加载图片
+         */
+        void onThumbnailLoaded(@NonNull RoundedImageView view, boolean hit);
+    }
+
+    private RoundedThumbnailStore(MappedBlobStore blobStore) {
+        mBlobStore = blobStore;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                return new Thread(r, TAG);
+            }
+        });
+    }
+
+    /**
+     * 打开缓存目录,总大小超过maxSize时按最近使用顺序淘汰.
+     */
+    @NonNull
+    public static RoundedThumbnailStore open(@NonNull File dir, long maxSize) throws IOException {
+        return new RoundedThumbnailStore(new MappedBlobStore(dir, maxSize));
+    }
+
+    /**
+     * 控件还没有确定尺寸时返回null.
+     */
+    @Nullable
+    public static String createKey(@NonNull String sourceId, @NonNull RoundedImageView view) {
+        StringBuilder sb = new StringBuilder(sourceId.length() + 64);
+        sb.append(FORMAT_VERSION).append('|');
+        if (!view.appendThumbnailKey(sb)) {
+            return null;
+        }
+        return sb.append('|').append(sourceId).toString();
+    }
+
+    /**
+     * 同步读取缩略图,返回的位图来自{@link RoundedImageView#getBitmapPool()}.
+     */
+    @Nullable
+    public Bitmap get(@NonNull String key) {
+        byte[] data;
+        try {
+            data = mBlobStore.get(key);
+        } catch (IOException e) {
+            Log.w(TAG, "read failed", e);
+            return null;
+        }
+        if (data == null || data.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        final int width = buffer.getInt();
+        final int height = buffer.getInt();
+        if (width <= 0 || height <= 0 || data.length != HEADER_SIZE + (long) width * height * BYTES_PER_PIXEL) {
+            return null;
+        }
+        Bitmap bitmap = RoundedImageView.getBitmapPool().get(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.copyPixelsFromBuffer(buffer);
+        return bitmap;
+    }
+
+    /**
+     * 同步写入缩略图,圆角之外需要透明,只支持ARGB_8888.
+     */
+    public boolean put(@NonNull String key, @NonNull Bitmap bitmap) {
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888 || bitmap.isRecycled()) {
+            return false;
+        }
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + width * height * BYTES_PER_PIXEL);
+        buffer.putInt(width).putInt(height);
+        bitmap.copyPixelsToBuffer(buffer);
+        try {
+            return mBlobStore.put(key, buffer.array());
+        } catch (IOException e) {
+            Log.w(TAG, "write failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * 把控件当前显示的圆角图片保存到缓存,在主线程绘制,在后台线程写入.
+     * 控件还没有内容或者尺寸,在{@link RoundedImageView#beginUpdate()}的批量修改中,或者缓存已经关闭时返回false.
+     */
+    @MainThread
+    public boolean save(@NonNull String sourceId, @NonNull RoundedImageView view) {
+        if (mExecutor.isShutdown()) {
+            return false;
+        }
+        final String key = createKey(sourceId, view);
+        if (key == null) {
+            return false;
+        }
+        final Bitmap thumbnail = view.renderRoundedThumbnail();
+        if (thumbnail == null) {
+            return false;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                put(key, thumbnail);
+                RoundedImageView.getBitmapPool().put(thumbnail);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 在后台线程读取缩略图,命中时直接显示到控件上.
+     * 控件还没有确定尺寸时等到布局完成后再读取;加载完成前控件设置了其他图片时放弃结果.
+     */
+    @MainThread
+    public void load(@NonNull final String sourceId, @NonNull final RoundedImageView view,
+                     @Nullable final Callback callback) {
+        if (mExecutor.isShutdown()) {
+            //已经关闭,按未命中处理
+            view.setThumbnailRequest(null);
+            if (callback != null) {
+                callback.onThumbnailLoaded(view, false);
+            }
+            return;
+        }
+        final String key = createKey(sourceId, view);
+        if (key == null) {
+            view.setThumbnailRequest(sourceId);
+            view.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    v.removeOnLayoutChangeListener(this);
+                    if (sourceId.equals(view.getThumbnailRequest())) {
+                        load(sourceId, view, callback);
+                    }
+                }
+            });
+            return;
+        }
+        view.setThumbnailRequest(sourceId);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = get(key);
+                DrawableRasterizer.getMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!sourceId.equals(view.getThumbnailRequest())) {
+                            RoundedImageView.getBitmapPool().put(bitmap);
+                            return;
+                        }
+                        view.setThumbnailRequest(null);
+                        if (bitmap != null) {
+                            view.setRoundedThumbnail(bitmap);
+                        }
+                        if (callback != null) {
+                            callback.onThumbnailLoaded(view, bitmap != null);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public void remove(@NonNull String key) {
+        try {
+            mBlobStore.remove(key);
+        } catch (IOException e) {
+            Log.w(TAG, "remove failed", e);
+        }
+    }
+
+    public int getHitCount() {
+        return mBlobStore.getHitCount();
+    }
+
+    public int getMissCount() {
+        return mBlobStore.getMissCount();
+    }
+
+    /**
+     * 缓存文件占用的磁盘空间.
+     */
+    public long getDiskSize() {
+        return mBlobStore.getDiskSize();
+    }
+
+    /**
+     * 等待未完成的写入,然后关闭文件.关闭后save返回false,load按未命中回调.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mBlobStore.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "close failed", e);
+                }
+            }
+        });
+        mExecutor.shutdown();
+    }
+}
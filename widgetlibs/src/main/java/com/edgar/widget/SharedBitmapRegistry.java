@@ -0,0 +1,146 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Created by Edgar on 2019/08/23.
+ * 按位图对象(以及可选的内容key)共享{@link RoundedDrawable.ShaderState}并做引用计数.
+ * 多个{@link RoundedImageView}显示同一个位图时共享同一个BitmapShader,
+ * 控件分离窗口时只释放引用,最后一个引用释放后才把复用池的位图归还,调用方传入的位图不会被回收.
+ */
+public final class SharedBitmapRegistry {
+
+    private static final IdentityHashMap<Bitmap, Entry> sEntries = new IdentityHashMap<>();
+    private static final HashMap<String, Entry> sKeyedEntries = new HashMap<>();
+    private static int sReferenceCount;
+    private static long sLiveBytes;
+    private static long sSharedBytes;
+
+    private SharedBitmapRegistry() {}
+
+    /**
+     * 获取位图的共享Shader并增加引用.
+     * @param key 内容key,相同key的请求可以通过{@link #acquire(String)}直接复用这个位图,为null时只按对象共享
+     * @param pooled 最后一个引用释放时是否归还到复用池,只在第一次登记时生效
+     */
+    @MainThread
+    @NonNull
+    static synchronized RoundedDrawable.ShaderState acquire(@NonNull Bitmap bitmap, @Nullable String key,
+                                                           boolean pooled) {
+        Entry entry = sEntries.get(bitmap);
+        if (entry == null) {
+            entry = new Entry(new RoundedDrawable.ShaderState(bitmap), key, pooled);
+            sEntries.put(bitmap, entry);
+            if (key != null) {
+                sKeyedEntries.put(key, entry);
+            }
+            sLiveBytes += entry.byteSize;
+        } else {
+            sSharedBytes += entry.byteSize;
+        }
+        entry.refCount++;
+        sReferenceCount++;
+        return entry.shaderState;
+    }
+
+    /**
+     * 按内容key获取仍在使用的位图并增加引用,没有时返回null.
+     */
+    @MainThread
+    @Nullable
+    static synchronized Bitmap acquire(@NonNull String key) {
+        Entry entry = sKeyedEntries.get(key);
+        if (entry == null || entry.shaderState.bitmap.isRecycled()) {
+            return null;
+        }
+        acquire(entry.shaderState.bitmap, key, entry.pooled);
+        return entry.shaderState.bitmap;
+    }
+
+    /**
+     * 释放一个引用,最后一个引用释放后按登记时的方式处理位图.
+     */
+    @MainThread
+    static synchronized void release(@NonNull Bitmap bitmap) {
+        Entry entry = sEntries.get(bitmap);
+        if (entry == null) {
+            return;
+        }
+        entry.refCount--;
+        sReferenceCount--;
+        if (entry.refCount > 0) {
+            sSharedBytes -= entry.byteSize;
+            return;
+        }
+        sEntries.remove(bitmap);
+        if (entry.key != null && sKeyedEntries.get(entry.key) == entry) {
+            sKeyedEntries.remove(entry.key);
+        }
+        sLiveBytes -= entry.byteSize;
+        if (entry.pooled) {
+            RoundedImageView.getBitmapPool().put(bitmap);
+        }
+    }
+
+    static synchronized int getReferenceCount(@NonNull Bitmap bitmap) {
+        Entry entry = sEntries.get(bitmap);
+        return entry != null ? entry.refCount : 0;
+    }
+
+    /**
+     * 仍被引用的位图数量.
+     */
+    public static synchronized int getLiveBitmapCount() {
+        return sEntries.size();
+    }
+
+    /**
+     * 所有位图的引用数之和.
+     */
+    public static synchronized int getReferenceCount() {
+        return sReferenceCount;
+    }
+
+    /**
+     * 共享已有位图的引用数,即少创建的位图和BitmapShader数量.
+     */
+    public static synchronized int getSharedReferenceCount() {
+        return sReferenceCount - sEntries.size();
+    }
+
+    /**
+     * 仍被引用的位图占用的字节数.
+     */
+    public static synchronized long getLiveBytes() {
+        return sLiveBytes;
+    }
+
+    /**
+     * 共享引用如果各自持有一份位图需要额外占用的字节数.
+     */
+    public static synchronized long getSharedBytes() {
+        return sSharedBytes;
+    }
+
+    private static final class Entry {
+        final RoundedDrawable.ShaderState shaderState;
+        final String key;
+        final boolean pooled;
+        //HARDWARE位图也按像素内存计算,登记时记录,回收后无法再读取
+        final int byteSize;
+        int refCount;
+
+        Entry(RoundedDrawable.ShaderState shaderState, String key, boolean pooled) {
+            this.shaderState = shaderState;
+            this.key = key;
+            this.pooled = pooled;
+            this.byteSize = LruBitmapPool.getBitmapByteSize(shaderState.bitmap);
+        }
+    }
+}
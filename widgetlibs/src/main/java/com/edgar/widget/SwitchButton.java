@@ -1,22 +1,29 @@
 package com.edgar.widget;
 
-import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.view.ViewCompat;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.SoundEffectConstants;
+import android.view.VelocityTracker;
 import android.view.ViewConfiguration;
+import android.view.animation.AnimationUtils;
 import android.widget.CompoundButton;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Created by Edgar on 2018/12/24.
  */
@@ -27,6 +34,20 @@ public class SwitchButton extends CompoundButton {
     private static final int TOUCH_MODE_IDLE = 0;
     private static final int TOUCH_MODE_DOWN = 1;
     private static final int TOUCH_MODE_DRAGGING = 2;
+    private static final int MAX_TRACK_STATES = 16;
+
+    //相同尺寸、圆角、颜色的轨道共享GradientDrawable的ConstantState,每个控件只创建轻量的Drawable,
+    //两个轨道只在静止状态绘制,不修改Drawable的状态
+    private static final LinkedHashMap<String, Drawable.ConstantState> sTrackStates =
+            new LinkedHashMap<String, Drawable.ConstantState>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Drawable.ConstantState> eldest) {
+                    return size() > MAX_TRACK_STATES;
+                }
+            };
+    private static Drawable.ConstantState sDefaultThumbState;
+    private static int sDefaultThumbDensity;
+    private static boolean sShareDrawableState = true;
 
     private Drawable mThumbDrawable;
     private GradientDrawable mTrackDrawable;
@@ -40,10 +61,51 @@ public class SwitchButton extends CompoundButton {
     private float mLastTouchX;
     private float mLastTouchY;
     private int mTouchSlop;
+    private int mMinFlingVelocity;
+    private int mMaxFlingVelocity;
+    private VelocityTracker mVelocityTracker;
+    //松手时的速度,px/s,setChecked开始动画时按这个速度弹向终点
+    private float mReleaseVelocity = Float.NaN;
     private int mTouchMode = TOUCH_MODE_IDLE;
-    private ValueAnimator mThumbAnimation;
+    //滑块动画在帧回调中推进,每个控件只创建一次,动画过程中不分配内存
+    private final ThumbAnimator mThumbAnimator = new ThumbAnimator();
+    private final Runnable mThumbFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mThumbFrameScheduled = false;
+            doThumbFrame(AnimationUtils.currentAnimationTimeMillis());
+        }
+    };
+    private boolean mThumbFrameScheduled;
+    //动画由SwitchGroup的共享时钟推进,不注册自己的帧回调
+    private boolean mGroupClock;
+    //是否在SwitchGroup共享时钟的列表中,避免group逐个查找
+    private boolean mInGroupFrameList;
+    //SwitchGroup批量设置时的参数,只在setCheckedFromGroup中有效
+    private boolean mSkipAnimation;
+    private long mGroupStartTime = -1;
+    private boolean mSuppressCheckedChange;
+    private OnCheckedChangeListener mOnCheckedChangeListener;
+    private OnCheckedChangeListener mGroupListener;
+    //父类只持有这个转发器,SwitchGroup批量设置时不通知控件自己的监听器
+    private final OnCheckedChangeListener mCheckedChangeDispatcher = new OnCheckedChangeListener() {
+        @Override
+        public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+            if (mGroupListener != null) {
+                mGroupListener.onCheckedChanged(buttonView, isChecked);
+            }
+            if (!mSuppressCheckedChange && mOnCheckedChangeListener != null) {
+                mOnCheckedChangeListener.onCheckedChanged(buttonView, isChecked);
+            }
+        }
+    };
     private int mThumbPosition;
+    //切换进度0~255,0未选中,255选中
     private int mTrackAlpha;
+    //切换过程中轨道只绘制一层,颜色从查找表中取
+    private int[] mTrackColors;
+    private Paint mTrackPaint;
+    private RectF mTrackRect;
 
     public SwitchButton(Context context) {
         this(context, null);
@@ -59,7 +121,7 @@ public class SwitchButton extends CompoundButton {
         TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.SwitchButton, defStyleAttr, 0);
         mThumbDrawable = ta.getDrawable(R.styleable.SwitchButton_android_thumb);
         if (mThumbDrawable == null) {
-            mThumbDrawable = res.getDrawable(R.drawable.default_thumb);
+            mThumbDrawable = getDefaultThumb(res);
         }
         mTrackWidth = ta.getDimensionPixelOffset(R.styleable.SwitchButton_trackWidth, res.getDimensionPixelOffset(R.dimen.default_track_width));
         mTrackHeight = ta.getDimensionPixelOffset(R.styleable.SwitchButton_trackHeight, res.getDimensionPixelOffset(R.dimen.default_track_height));
@@ -71,18 +133,57 @@ public class SwitchButton extends CompoundButton {
         ta.recycle();
         final ViewConfiguration config = ViewConfiguration.get(context);
         mTouchSlop = config.getScaledTouchSlop();
+        mMinFlingVelocity = config.getScaledMinimumFlingVelocity();
+        mMaxFlingVelocity = config.getScaledMaximumFlingVelocity();
         mTrackDrawable = createTrackDrawable(mUnCheckColor);
         mTrackCheckDrawable = createTrackDrawable(mCheckColor);
         setDrawableCallback(mThumbDrawable);
         setDrawableCallback(mTrackDrawable);
         setDrawableCallback(mTrackCheckDrawable);
-        mTrackCheckDrawable.setAlpha(mTrackAlpha);
         mThumbPosition = getThumbPosition();
         configThumbBounds();
         configTrackBounds();
     }
 
+    /**
+     * 是否在控件之间共享轨道和默认滑块的ConstantState,默认开启,关闭后每个控件单独创建,只用于对比测试.
+     */
+    static void setShareDrawableState(boolean share) {
+        synchronized (sTrackStates) {
+            sShareDrawableState = share;
+            if (!share) {
+                sTrackStates.clear();
+                sDefaultThumbState = null;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    Drawable getTrackDrawable() {
+        return mTrackDrawable;
+    }
+
     private GradientDrawable createTrackDrawable(@ColorInt int color) {
+        final String key;
+        synchronized (sTrackStates) {
+            if (!sShareDrawableState) {
+                return newTrackDrawable(color);
+            }
+            key = mTrackWidth + "x" + mTrackHeight + "|" + mTrackRadius + "|" + color;
+            final Drawable.ConstantState state = sTrackStates.get(key);
+            if (state != null) {
+                //GradientDrawable的尺寸和圆角都是像素值,不需要按Resources重新适配密度
+                return (GradientDrawable) state.newDrawable();
+            }
+        }
+        final GradientDrawable drawable = newTrackDrawable(color);
+        synchronized (sTrackStates) {
+            sTrackStates.put(key, drawable.getConstantState());
+        }
+        return drawable;
+    }
+
+    private GradientDrawable newTrackDrawable(@ColorInt int color) {
         GradientDrawable drawable = new GradientDrawable();
         drawable.setColor(color);
         drawable.setSize(mTrackWidth, mTrackHeight);
@@ -90,6 +191,26 @@ public class SwitchButton extends CompoundButton {
         return drawable;
     }
 
+    /**
+     * 默认滑块按屏幕密度缓存ConstantState,不需要每次都通过Resources查找和解析.
+     */
+    private static Drawable getDefaultThumb(Resources res) {
+        final int density = res.getDisplayMetrics().densityDpi;
+        synchronized (sTrackStates) {
+            if (sShareDrawableState && sDefaultThumbState != null && sDefaultThumbDensity == density) {
+                return sDefaultThumbState.newDrawable(res);
+            }
+        }
+        final Drawable thumb = res.getDrawable(R.drawable.default_thumb);
+        synchronized (sTrackStates) {
+            if (sShareDrawableState) {
+                sDefaultThumbState = thumb.getConstantState();
+                sDefaultThumbDensity = density;
+            }
+        }
+        return thumb;
+    }
+
     private void setDrawableCallback(Drawable drawable) {
         if (drawable != null) {
             drawable.setCallback(this);
@@ -125,10 +246,6 @@ public class SwitchButton extends CompoundButton {
         return x > thumbLeft && x < thumbRight && y > thumbTop && y < thumbBottom;
     }
 
-    private int getHorizontalTotalPadding() {
-        return mThumbPadding * 2;
-    }
-
     private int getSwitchEndLeft() {
         return mTrackWidth - mThumbPadding - getThumbWidth();
     }
@@ -142,12 +259,66 @@ public class SwitchButton extends CompoundButton {
         setChecked(!isChecked());
     }
 
+    @Override
+    public void setOnCheckedChangeListener(OnCheckedChangeListener listener) {
+        mOnCheckedChangeListener = listener;
+        updateCheckedChangeDispatcher();
+    }
+
+    void setGroupListener(OnCheckedChangeListener listener) {
+        mGroupListener = listener;
+        updateCheckedChangeDispatcher();
+    }
+
+    private void updateCheckedChangeDispatcher() {
+        final boolean dispatch = mOnCheckedChangeListener != null || mGroupListener != null;
+        super.setOnCheckedChangeListener(dispatch ? mCheckedChangeDispatcher : null);
+    }
+
+    /**
+     * 由{@link SwitchGroup}批量设置状态,只通知group,不通知控件自己的监听器.
+     * @param animate false时直接跳到终点
+     * @param startTime 共享时钟的开始时间,大于等于0时动画由group推进,见{@link #doGroupFrame(long)}
+     */
+    void setCheckedFromGroup(boolean checked, boolean animate, long startTime) {
+        mSuppressCheckedChange = true;
+        mSkipAnimation = !animate;
+        mGroupStartTime = startTime;
+        try {
+            setChecked(checked);
+        } finally {
+            mSuppressCheckedChange = false;
+            mSkipAnimation = false;
+            mGroupStartTime = -1;
+        }
+    }
+
+    boolean isGroupClockRunning() {
+        return mGroupClock && mThumbAnimator.isRunning();
+    }
+
+    boolean isInGroupFrameList() {
+        return mInGroupFrameList;
+    }
+
+    void setInGroupFrameList(boolean inList) {
+        mInGroupFrameList = inList;
+    }
+
+    /**
+     * 共享时钟的一帧.
+     * @return 是否还需要group继续推进
+     */
+    boolean doGroupFrame(long now) {
+        return mGroupClock && doThumbFrame(now);
+    }
+
     @Override
     public void setChecked(boolean checked) {
         super.setChecked(checked);
         checked = isChecked();
         mTrackAlpha = checked ? 255 : 0;
-        if (ViewCompat.isAttachedToWindow(this) && ViewCompat.isLaidOut(this)) {
+        if (!mSkipAnimation && ViewCompat.isAttachedToWindow(this) && ViewCompat.isLaidOut(this)) {
             animationChecked(checked);
         } else {
             cancelCheckedAnimation();
@@ -155,9 +326,7 @@ public class SwitchButton extends CompoundButton {
             if (mThumbDrawable != null) {
                 configThumbBounds();
             }
-            if (mTrackCheckDrawable != null) {
-                mTrackCheckDrawable.setAlpha(mTrackAlpha);
-            }
+            invalidate();
         }
     }
 
@@ -175,6 +344,9 @@ public class SwitchButton extends CompoundButton {
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        if (mVelocityTracker != null) {
+            mVelocityTracker.addMovement(event);
+        }
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN: {
                 final float x = event.getX();
@@ -183,6 +355,12 @@ public class SwitchButton extends CompoundButton {
                     mTouchMode = TOUCH_MODE_DOWN;
                     mLastTouchX = x;
                     mLastTouchY = y;
+                    if (mVelocityTracker == null) {
+                        mVelocityTracker = VelocityTracker.obtain();
+                    } else {
+                        mVelocityTracker.clear();
+                    }
+                    mVelocityTracker.addMovement(event);
                 }
                 break;
             }
@@ -206,6 +384,10 @@ public class SwitchButton extends CompoundButton {
                         break;
                     }
                     case TOUCH_MODE_DRAGGING: {
+                        if (mThumbAnimator.isRunning()) {
+                            //拖动时由手指控制滑块
+                            cancelCheckedAnimation();
+                        }
                         startDrag(event.getX(), event.getY());
                         return true;
                     }
@@ -215,10 +397,12 @@ public class SwitchButton extends CompoundButton {
             case MotionEvent.ACTION_CANCEL: {
                 if (mTouchMode == TOUCH_MODE_DRAGGING) {
                     stopDrag(event);
+                    recycleVelocityTracker();
                     super.onTouchEvent(event);
                     return true;
                 }
                 mTouchMode = TOUCH_MODE_IDLE;
+                recycleVelocityTracker();
                 break;
             }
         }
@@ -246,10 +430,11 @@ public class SwitchButton extends CompoundButton {
         final boolean commitChange = ev.getAction() == MotionEvent.ACTION_UP && isEnabled();
         final boolean oldState = isChecked();
         final boolean newState;
+        float velocity = 0;
         if (commitChange) {
-            final Rect bounds = mThumbDrawable.getBounds();
-            int centerX = bounds.centerX();
-            newState = centerX >= getMeasuredWidth() / 2;
+            mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+            velocity = mVelocityTracker.getXVelocity();
+            newState = getSettleState(velocity);
         } else {
             newState = oldState;
         }
@@ -257,10 +442,29 @@ public class SwitchButton extends CompoundButton {
         if (newState != oldState) {
             playSoundEffect(SoundEffectConstants.CLICK);
         }
+        mReleaseVelocity = velocity;
         setChecked(newState);
+        mReleaseVelocity = Float.NaN;
         cancelSuperTouch(ev);
     }
 
+    /**
+     * 快速滑动时按滑动方向决定状态,否则按滑块中心是否超过一半决定.
+     */
+    private boolean getSettleState(float velocity) {
+        if (Math.abs(velocity) >= mMinFlingVelocity) {
+            return velocity > 0;
+        }
+        return mThumbDrawable.getBounds().centerX() >= getMeasuredWidth() / 2;
+    }
+
+    private void recycleVelocityTracker() {
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
     private void cancelSuperTouch(MotionEvent ev) {
         MotionEvent cancel = MotionEvent.obtain(ev);
         cancel.setAction(MotionEvent.ACTION_CANCEL);
@@ -269,25 +473,71 @@ public class SwitchButton extends CompoundButton {
     }
 
     private void cancelCheckedAnimation() {
-        if (mThumbAnimation != null) {
-            mThumbAnimation.cancel();
+        //CompoundButton的构造方法会调用setChecked,这时字段还没有初始化
+        if (mThumbAnimator == null) {
+            return;
+        }
+        mThumbAnimator.cancel();
+        mGroupClock = false;
+        if (mThumbFrameScheduled) {
+            removeCallbacks(mThumbFrameRunnable);
+            mThumbFrameScheduled = false;
         }
     }
 
     private void animationChecked(final boolean checked) {
         final int targetPosition = checked ? getSwitchEndLeft() : mThumbPadding;
-        if (mThumbAnimation == null) {
-            mThumbAnimation = ValueAnimator.ofInt();
-            mThumbAnimation.setDuration(ANIMATION_DURATION);
-            mThumbAnimation.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator animation) {
-                    setThumbPosition((Integer) animation.getAnimatedValue(), true);
-                }
-            });
+        if (mGroupStartTime >= 0) {
+            //同步切换统一使用补间,同一批的滑块同时开始、同时结束
+            cancelCheckedAnimation();
+            mThumbAnimator.start(mThumbPosition, targetPosition, mGroupStartTime, ANIMATION_DURATION);
+            mGroupClock = true;
+            return;
         }
-        mThumbAnimation.setIntValues(mThumbPosition, targetPosition);
-        mThumbAnimation.start();
+        mGroupClock = false;
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        if (!Float.isNaN(mReleaseVelocity)) {
+            //松手后带着手指的速度弹向终点
+            mThumbAnimator.startSpring(mThumbPosition, targetPosition, mReleaseVelocity, now);
+        } else if (mThumbAnimator.isSpringRunning() && mThumbAnimator.doFrame(now)) {
+            //弹簧还没停下时切换,从当前的位置和速度继续
+            mThumbAnimator.retarget(targetPosition, now);
+        } else {
+            mThumbAnimator.start(mThumbPosition, targetPosition, now, ANIMATION_DURATION);
+        }
+        scheduleThumbFrame();
+    }
+
+    private void scheduleThumbFrame() {
+        if (!mThumbFrameScheduled) {
+            mThumbFrameScheduled = true;
+            ViewCompat.postOnAnimation(this, mThumbFrameRunnable);
+        }
+    }
+
+    private boolean doThumbFrame(long now) {
+        final boolean running = mThumbAnimator.doFrame(now);
+        //弹簧带着速度时可能越过终点,限制在轨道内
+        final int position = Math.round(mThumbAnimator.getPosition());
+        setThumbPosition(Math.max(mThumbPadding, Math.min(position, getSwitchEndLeft())), true);
+        if (!running) {
+            mGroupClock = false;
+        } else if (!mGroupClock) {
+            scheduleThumbFrame();
+        }
+        return running;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        recycleVelocityTracker();
+        mTouchMode = TOUCH_MODE_IDLE;
+        if (mThumbAnimator.isRunning()) {
+            //分离后不再有帧回调,直接跳到终点
+            cancelCheckedAnimation();
+            setThumbPosition(Math.round(mThumbAnimator.getTarget()), true);
+        }
+        super.onDetachedFromWindow();
     }
 
     private void setThumbPosition(int position, boolean changeAlpha) {
@@ -295,10 +545,13 @@ public class SwitchButton extends CompoundButton {
         final Rect bounds = mThumbDrawable.getBounds();
         mThumbDrawable.setBounds(position, bounds.top, position + getThumbWidth(), bounds.bottom);
         if (changeAlpha) {
-            int width = getMeasuredWidth() - getHorizontalTotalPadding() - getThumbWidth();
-            float alpha = Math.max(0f, Math.min((float) bounds.left / width, 1f));
-            mTrackAlpha = (int) (255 * alpha);
-            mTrackCheckDrawable.setAlpha(mTrackAlpha);
+            //按滑块在两个停靠位置之间的进度计算,停在两端时正好是0和255,绘制单色轨道
+            final int trackAlpha = TrackColorTable.computeProgress(position, mThumbPadding, getSwitchEndLeft());
+            if (trackAlpha != mTrackAlpha) {
+                //轨道颜色不再通过Drawable.setAlpha刷新,软件绘制时滑块的脏区域不包含整个轨道
+                mTrackAlpha = trackAlpha;
+                invalidate();
+            }
         }
     }
 
@@ -314,8 +567,33 @@ public class SwitchButton extends CompoundButton {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        mTrackDrawable.draw(canvas);
-        mTrackCheckDrawable.draw(canvas);
+        drawTrack(canvas);
         mThumbDrawable.draw(canvas);
     }
+
+    /**
+     * 静止时只绘制对应的共享轨道,切换过程中按进度插值的颜色绘制一个圆角矩形,每帧只混合一次.
+     */
+    private void drawTrack(Canvas canvas) {
+        final int progress = mTrackAlpha;
+        if (progress <= 0) {
+            mTrackDrawable.draw(canvas);
+            return;
+        }
+        if (progress >= TrackColorTable.SIZE - 1) {
+            mTrackCheckDrawable.draw(canvas);
+            return;
+        }
+        if (mTrackPaint == null) {
+            mTrackColors = TrackColorTable.get(mUnCheckColor, mCheckColor);
+            mTrackPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            mTrackRect = new RectF();
+        }
+        mTrackPaint.setColor(mTrackColors[progress]);
+        final Rect bounds = mTrackDrawable.getBounds();
+        mTrackRect.set(bounds);
+        //和GradientDrawable一样,圆角不超过短边的一半
+        final float radius = Math.min(mTrackRadius, Math.min(bounds.width(), bounds.height()) * 0.5f);
+        canvas.drawRoundRect(mTrackRect, radius, radius, mTrackPaint);
+    }
 }
\ No newline at end of file
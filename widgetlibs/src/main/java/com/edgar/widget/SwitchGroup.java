@@ -0,0 +1,234 @@
+package com.edgar.widget;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.animation.AnimationUtils;
+import android.widget.CompoundButton;
+import android.widget.LinearLayout;
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.core.view.ViewCompat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Created by Edgar on 2019/08/29.
+ * 管理一组{@link SwitchButton},可以一次设置多个开关的状态.
+ * 批量设置时不通知每个开关自己的监听器,结束后通过{@link OnCheckedChangeListener}发出一次事件,
+ * 包含所有状态改变的开关id;动画可以跳过,也可以由group的同一个帧回调同步推进.
+ * 直接子控件以及加入时已经包含在子控件中的开关都会被管理,没有id的开关会自动生成id.
+ */
+public class SwitchGroup extends LinearLayout {
+
+    //直接跳到终点
+    public static final int ANIMATION_NONE = 0;
+    //每个开关各自执行动画
+    public static final int ANIMATION_EACH = 1;
+    //所有开关使用同一个时钟,同时开始、同时结束
+    public static final int ANIMATION_SYNC = 2;
+
+    public interface OnCheckedChangeListener {
+        /**
+         * @param changedIds 状态改变的开关id,按开关加入group的顺序
+         */
+        void onCheckedChanged(SwitchGroup group, int[] changedIds);
+    }
+
+    private final ArrayList<SwitchButton> mSwitches = new ArrayList<SwitchButton>();
+    private final ArrayList<SwitchButton> mSyncedSwitches = new ArrayList<SwitchButton>();
+    private final PassThroughHierarchyChangeListener mPassThroughListener = new PassThroughHierarchyChangeListener();
+    private final CompoundButton.OnCheckedChangeListener mChildListener = new CompoundButton.OnCheckedChangeListener() {
+        @Override
+        public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+            if (mApplying) {
+                addChangedId(buttonView.getId());
+            } else if (mOnCheckedChangeListener != null) {
+                mOnCheckedChangeListener.onCheckedChanged(SwitchGroup.this, new int[]{buttonView.getId()});
+            }
+        }
+    };
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFrameScheduled = false;
+            doFrame(AnimationUtils.currentAnimationTimeMillis());
+        }
+    };
+    private OnCheckedChangeListener mOnCheckedChangeListener;
+    private boolean mApplying;
+    private int[] mChangedIds = new int[8];
+    private int mChangedCount;
+    private boolean mFrameScheduled;
+
+    public SwitchGroup(Context context) {
+        this(context, null);
+    }
+
+    public SwitchGroup(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public SwitchGroup(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        super.setOnHierarchyChangeListener(mPassThroughListener);
+    }
+
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        mPassThroughListener.mOnHierarchyChangeListener = listener;
+    }
+
+    public void setOnCheckedChangeListener(@Nullable OnCheckedChangeListener listener) {
+        mOnCheckedChangeListener = listener;
+    }
+
+    /**
+     * 一次设置多个开关的状态,不在group中的id会被忽略.
+     * @param states 开关id到选中状态
+     * @param animationMode {@link #ANIMATION_NONE},{@link #ANIMATION_EACH}或{@link #ANIMATION_SYNC}
+     * @return 状态改变的开关数量,大于0时已经通知过{@link OnCheckedChangeListener}
+     */
+    @MainThread
+    public int applyStates(Map<Integer, Boolean> states, int animationMode) {
+        final boolean animate = animationMode != ANIMATION_NONE;
+        final long startTime = animationMode == ANIMATION_SYNC ? AnimationUtils.currentAnimationTimeMillis() : -1;
+        mChangedCount = 0;
+        mApplying = true;
+        try {
+            for (int i = 0, count = mSwitches.size(); i < count; i++) {
+                final SwitchButton switchButton = mSwitches.get(i);
+                final Boolean checked = states.get(switchButton.getId());
+                if (checked == null || checked == switchButton.isChecked()) {
+                    continue;
+                }
+                switchButton.setCheckedFromGroup(checked, animate, startTime);
+                if (switchButton.isGroupClockRunning() && !switchButton.isInGroupFrameList()) {
+                    switchButton.setInGroupFrameList(true);
+                    mSyncedSwitches.add(switchButton);
+                }
+            }
+        } finally {
+            mApplying = false;
+        }
+        if (!mSyncedSwitches.isEmpty()) {
+            scheduleFrame();
+        }
+        final int changedCount = mChangedCount;
+        if (changedCount > 0 && mOnCheckedChangeListener != null) {
+            mOnCheckedChangeListener.onCheckedChanged(this, Arrays.copyOf(mChangedIds, changedCount));
+        }
+        return changedCount;
+    }
+
+    private void addChangedId(int id) {
+        if (mChangedCount == mChangedIds.length) {
+            mChangedIds = Arrays.copyOf(mChangedIds, mChangedCount * 2);
+        }
+        mChangedIds[mChangedCount++] = id;
+    }
+
+    private void scheduleFrame() {
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            ViewCompat.postOnAnimation(this, mFrameRunnable);
+        }
+    }
+
+    /**
+     * 同步动画每帧只有一个回调,用同一个时间推进所有开关.
+     */
+    private void doFrame(long now) {
+        for (int i = mSyncedSwitches.size() - 1; i >= 0; i--) {
+            if (!mSyncedSwitches.get(i).doGroupFrame(now)) {
+                //动画结束,或者被点击、拖动接管
+                mSyncedSwitches.remove(i).setInGroupFrameList(false);
+            }
+        }
+        if (!mSyncedSwitches.isEmpty()) {
+            scheduleFrame();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        //子控件分离时已经跳到终点
+        if (mFrameScheduled) {
+            removeCallbacks(mFrameRunnable);
+            mFrameScheduled = false;
+        }
+        clearSyncedSwitches();
+        super.onDetachedFromWindow();
+    }
+
+    private void clearSyncedSwitches() {
+        for (int i = 0, count = mSyncedSwitches.size(); i < count; i++) {
+            mSyncedSwitches.get(i).setInGroupFrameList(false);
+        }
+        mSyncedSwitches.clear();
+    }
+
+    private void addSwitches(View view) {
+        if (view instanceof SwitchButton) {
+            final SwitchButton switchButton = (SwitchButton) view;
+            if (switchButton.getId() == View.NO_ID) {
+                switchButton.setId(ViewCompat.generateViewId());
+            }
+            switchButton.setGroupListener(mChildListener);
+            mSwitches.add(switchButton);
+        } else if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0, count = group.getChildCount(); i < count; i++) {
+                addSwitches(group.getChildAt(i));
+            }
+        }
+    }
+
+    private void removeSwitches(View view) {
+        if (view instanceof SwitchButton) {
+            final SwitchButton switchButton = (SwitchButton) view;
+            switchButton.setGroupListener(null);
+            mSwitches.remove(switchButton);
+            if (switchButton.isInGroupFrameList()) {
+                switchButton.setInGroupFrameList(false);
+                mSyncedSwitches.remove(switchButton);
+            }
+        } else if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0, count = group.getChildCount(); i < count; i++) {
+                removeSwitches(group.getChildAt(i));
+            }
+        }
+    }
+
+    /**
+     * 和RadioGroup一样,先处理开关的注册,再转发给外部设置的监听器.
+     */
+    private class PassThroughHierarchyChangeListener implements OnHierarchyChangeListener {
+
+        private OnHierarchyChangeListener mOnHierarchyChangeListener;
+
+        @Override
+        public void onChildViewAdded(View parent, View child) {
+            if (parent == SwitchGroup.this) {
+                addSwitches(child);
+            }
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewAdded(parent, child);
+            }
+        }
+
+        @Override
+        public void onChildViewRemoved(View parent, View child) {
+            if (parent == SwitchGroup.this) {
+                removeSwitches(child);
+            }
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewRemoved(parent, child);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.edgar.widget;
+
+/**
+ * Created by Edgar on 2019/08/27.
+ * {@link SwitchButton}滑块的动画,只保存基本类型的状态,由调用方在帧回调中传入时间推进.
+ * 和ValueAnimator相比没有装箱、没有监听器列表,也不需要全局的AnimationHandler,
+ * 每个控件只创建一次,动画过程中不分配内存.
+ * 点击切换使用固定时长的补间;拖动松手后使用临界阻尼的弹簧,按解析解计算,结果只和时间有关,
+ * 弹簧运行中更换目标时从当前的位置和速度继续,不会丢掉惯性.
+ */
+final class ThumbAnimator {
+
+    //弹簧刚度(质量为1),临界阻尼时大约250ms静止
+    static final float SPRING_STIFFNESS = 700f;
+    //距离目标和速度都小于阈值时结束,单位px和px/s
+    private static final float SPRING_REST_DISTANCE = 0.5f;
+    private static final float SPRING_REST_VELOCITY = 10f;
+    private static final float SPRING_OMEGA = (float) Math.sqrt(SPRING_STIFFNESS);
+
+    private float mFrom;
+    private float mTo;
+    private float mPosition;
+    private float mVelocity;  //px/s,只有弹簧会计算
+    private long mStartTime;
+    private long mDuration;
+    private boolean mRunning;
+    private boolean mSpring;
+    //弹簧的解析解 x(t) = to + (c1 + c2 * t) * e^(-ωt)
+    private float mSpringC1;
+    private float mSpringC2;
+
+    void start(float from, float to, long startTime, long duration) {
+        mFrom = from;
+        mTo = to;
+        mPosition = from;
+        mVelocity = 0;
+        mStartTime = startTime;
+        mDuration = duration;
+        mRunning = true;
+        mSpring = false;
+    }
+
+    /**
+     * 以初始速度弹向目标.
+     * @param velocity 初始速度,px/s
+     */
+    void startSpring(float from, float to, float velocity, long startTime) {
+        mPosition = from;
+        mVelocity = velocity;
+        mRunning = true;
+        mSpring = true;
+        setSpringTarget(to, startTime);
+    }
+
+    /**
+     * 弹簧运行中更换目标,保留当前的位置和速度.
+     * 调用方需要先用当前时间调用{@link #doFrame(long)}更新状态.
+     */
+    void retarget(float to, long now) {
+        setSpringTarget(to, now);
+    }
+
+    private void setSpringTarget(float to, long startTime) {
+        mTo = to;
+        mStartTime = startTime;
+        mSpringC1 = mPosition - to;
+        mSpringC2 = mVelocity + SPRING_OMEGA * mSpringC1;
+    }
+
+    void cancel() {
+        mRunning = false;
+        mVelocity = 0;
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    boolean isSpringRunning() {
+        return mRunning && mSpring;
+    }
+
+    float getPosition() {
+        return mPosition;
+    }
+
+    float getVelocity() {
+        return mVelocity;
+    }
+
+    float getTarget() {
+        return mTo;
+    }
+
+    /**
+     * 按帧时间更新位置.
+     * @return 动画是否还需要下一帧
+     */
+    boolean doFrame(long now) {
+        if (!mRunning) {
+            return false;
+        }
+        if (mSpring) {
+            return doSpringFrame(now);
+        }
+        final float fraction = mDuration <= 0 ? 1f
+                : Math.max(0f, Math.min((now - mStartTime) / (float) mDuration, 1f));
+        if (fraction >= 1f) {
+            mPosition = mTo;
+            mRunning = false;
+        } else {
+            mPosition = mFrom + (mTo - mFrom) * interpolate(fraction);
+        }
+        return mRunning;
+    }
+
+    private boolean doSpringFrame(long now) {
+        final float t = Math.max(0, now - mStartTime) / 1000f;
+        final float decay = (float) Math.exp(-SPRING_OMEGA * t);
+        final float offset = (mSpringC1 + mSpringC2 * t) * decay;
+        mPosition = mTo + offset;
+        mVelocity = (mSpringC2 - SPRING_OMEGA * (mSpringC1 + mSpringC2 * t)) * decay;
+        if (Math.abs(offset) < SPRING_REST_DISTANCE && Math.abs(mVelocity) < SPRING_REST_VELOCITY) {
+            mPosition = mTo;
+            mVelocity = 0;
+            mRunning = false;
+        }
+        return mRunning;
+    }
+
+    /**
+     * 和ValueAnimator默认的AccelerateDecelerateInterpolator相同.
+     */
+    static float interpolate(float fraction) {
+        return (float) (Math.cos((fraction + 1) * Math.PI) / 2.0) + 0.5f;
+    }
+}
@@ -0,0 +1,57 @@
+package com.edgar.widget;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Edgar on 2019/08/30.
+ * {@link TiledImageLoader}的块缓存,按最近显示的顺序淘汰.上限随可见块的数量变化,
+ * 所以不用removeEldestEntry,由调用方在更新可见区域后{@link #trim(int)}.淘汰的块交给Recycler归还到复用池.
+ */
+final class TileCache<T> {
+
+    interface Recycler<T> {
+        void recycle(T tile);
+    }
+
+    private final LinkedHashMap<Long, T> mTiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final Recycler<T> mRecycler;
+
+    TileCache(Recycler<T> recycler) {
+        mRecycler = recycler;
+    }
+
+    /**
+     * 获取并标记为最近显示.
+     */
+    T get(long key) {
+        return mTiles.get(key);
+    }
+
+    void put(long key, T tile) {
+        final T old = mTiles.put(key, tile);
+        if (old != null && old != tile) {
+            mRecycler.recycle(old);
+        }
+    }
+
+    /**
+     * 淘汰最久没有显示的块,直到数量不超过maxCount.
+     */
+    void trim(int maxCount) {
+        Iterator<Map.Entry<Long, T>> iterator = mTiles.entrySet().iterator();
+        while (mTiles.size() > maxCount && iterator.hasNext()) {
+            mRecycler.recycle(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    void clear() {
+        trim(0);
+    }
+
+    int size() {
+        return mTiles.size();
+    }
+}
@@ -0,0 +1,175 @@
+package com.edgar.widget;
+
+/**
+ * Created by Edgar on 2019/08/30.
+ * {@link TiledImageLoader}的坐标计算:按控件尺寸、缩放和焦点计算图片中的可见区域、采样率和需要显示的块.
+ * 只使用基本类型,不依赖Android的类,坐标都是图片坐标.
+ */
+final class TileGrid {
+
+    //块解码后的边长,屏幕上的尺寸在TILE_SIZE/2到TILE_SIZE之间
+    static final int TILE_SIZE = 256;
+    static final int BASE_SIZE = 512;
+    //缓存可见块数量的倍数,平移时相邻的块不需要重新解码
+    private static final float CACHE_FACTOR = 1.5f;
+
+    private int mImageWidth;
+    private int mImageHeight;
+    private float mScale;
+    private float mVisibleLeft;
+    private float mVisibleTop;
+    private float mVisibleRight;
+    private float mVisibleBottom;
+    private int mSampleSize = 1;
+    //可见的块的行列范围,不包含end
+    private int mFirstRow;
+    private int mFirstColumn;
+    private int mEndRow;
+    private int mEndColumn;
+
+    void setImageSize(int width, int height) {
+        mImageWidth = width;
+        mImageHeight = height;
+    }
+
+    int getImageWidth() {
+        return mImageWidth;
+    }
+
+    int getImageHeight() {
+        return mImageHeight;
+    }
+
+    /**
+     * 按CENTER_CROP再放大zoom倍计算可见区域,可见区域不会超出图片.
+     * @param focusX 可见区域中心在图片中的位置,0到1
+     */
+    void update(int viewWidth, int viewHeight, float zoom, float focusX, float focusY) {
+        mScale = Math.max((float) viewWidth / mImageWidth, (float) viewHeight / mImageHeight) * zoom;
+        final float visibleWidth = viewWidth / mScale;
+        final float visibleHeight = viewHeight / mScale;
+        final float centerX = clamp(focusX * mImageWidth, visibleWidth / 2f, mImageWidth - visibleWidth / 2f);
+        final float centerY = clamp(focusY * mImageHeight, visibleHeight / 2f, mImageHeight - visibleHeight / 2f);
+        mVisibleLeft = centerX - visibleWidth / 2f;
+        mVisibleTop = centerY - visibleHeight / 2f;
+        mVisibleRight = centerX + visibleWidth / 2f;
+        mVisibleBottom = centerY + visibleHeight / 2f;
+        mSampleSize = computeSampleSize(mScale);
+        final int tileImageSize = getTileImageSize();
+        mFirstColumn = (int) (mVisibleLeft / tileImageSize);
+        mFirstRow = (int) (mVisibleTop / tileImageSize);
+        mEndColumn = (int) Math.ceil(mVisibleRight / tileImageSize);
+        mEndRow = (int) Math.ceil(mVisibleBottom / tileImageSize);
+    }
+
+    float getScale() {
+        return mScale;
+    }
+
+    float getVisibleLeft() {
+        return mVisibleLeft;
+    }
+
+    float getVisibleTop() {
+        return mVisibleTop;
+    }
+
+    float getVisibleRight() {
+        return mVisibleRight;
+    }
+
+    float getVisibleBottom() {
+        return mVisibleBottom;
+    }
+
+    int getSampleSize() {
+        return mSampleSize;
+    }
+
+    int getFirstRow() {
+        return mFirstRow;
+    }
+
+    int getFirstColumn() {
+        return mFirstColumn;
+    }
+
+    int getEndRow() {
+        return mEndRow;
+    }
+
+    int getEndColumn() {
+        return mEndColumn;
+    }
+
+    /**
+     * 当前采样率下一个块覆盖的图片边长.
+     */
+    int getTileImageSize() {
+        return TILE_SIZE * mSampleSize;
+    }
+
+    /**
+     * 缓存的块数量上限.
+     */
+    int getMaxTileCount() {
+        return (int) Math.ceil((mEndColumn - mFirstColumn) * (mEndRow - mFirstRow) * CACHE_FACTOR);
+    }
+
+    int getTileLeft(int column) {
+        return column * getTileImageSize();
+    }
+
+    int getTileTop(int row) {
+        return row * getTileImageSize();
+    }
+
+    /**
+     * 最后一列的块在图片边缘截断.
+     */
+    int getTileRight(int column) {
+        return Math.min(mImageWidth, (column + 1) * getTileImageSize());
+    }
+
+    int getTileBottom(int row) {
+        return Math.min(mImageHeight, (row + 1) * getTileImageSize());
+    }
+
+    /**
+     * 当前采样率下的块是否和可见区域相交,只接触边缘不算.
+     */
+    boolean isTileVisible(int row, int column) {
+        return getTileLeft(column) < mVisibleRight && mVisibleLeft < getTileRight(column)
+                && getTileTop(row) < mVisibleBottom && mVisibleTop < getTileBottom(row);
+    }
+
+    static long tileKey(int sampleSize, int row, int column) {
+        return ((long) sampleSize << 48) | ((long) row << 24) | column;
+    }
+
+    /**
+     * 采样后的块在屏幕上不会被放大:最大的满足sampleSize * scale <= 1的2的幂.
+     */
+    static int computeSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 底图长边不超过{@link #BASE_SIZE}的最小的2的幂采样率.
+     */
+    static int computeBaseSampleSize(int width, int height) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / sampleSize > BASE_SIZE) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return min > max ? (min + max) / 2f : Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,319 @@
+package com.edgar.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.HashSet;
+
+/**
+ * Created by Edgar on 2019/08/24.
+ * 超大图片的分块显示:通过{@link BitmapRegionDecoder}只解码和当前可见区域相交的块,
+ * 按当前缩放比例选择采样率,块缓存在一个小的LRU中,然后合成到一张图片区域大小的位图上,
+ * 再由{@link RoundedImageView}按圆角绘制.内存占用只和控件尺寸有关,和图片尺寸无关.
+ * 块还没有解码完成时先显示一张长边不超过{@link TileGrid#BASE_SIZE}的低分辨率底图.
+ * 坐标计算在{@link TileGrid}中,块的缓存在{@link TileCache}中.
+ * 除了解码,所有状态只在主线程访问.
+ */
+final class TiledImageLoader {
+
+    private static final String TAG = "TiledImageLoader";
+
+    interface Listener {
+        /**
+         * 合成的位图内容或者对象发生变化,在主线程回调.尺寸变化时先回调null,之后旧的位图会被归还到复用池.
+         */
+        void onCompositeChanged(@Nullable Bitmap composite);
+    }
+
+    private final BitmapDecoder.Source mSource;
+    private final Listener mListener;
+    private volatile BitmapRegionDecoder mDecoder;
+    private volatile boolean mReleased;
+    //只有当前采样率的块需要解码,采样率变化后未开始的任务直接放弃
+    private volatile int mSampleSize;
+    private final TileGrid mGrid = new TileGrid();
+    private Bitmap mBase;
+    private Bitmap mComposite;
+    private Canvas mCanvas;
+    private int mViewWidth;
+    private int mViewHeight;
+    private float mZoom = 1f;
+    private float mFocusX = 0.5f;
+    private float mFocusY = 0.5f;
+    private final Rect mTileRect = new Rect();
+    private final RectF mDstRect = new RectF();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final HashSet<Long> mPending = new HashSet<>();
+    private final TileCache<Bitmap> mTiles = new TileCache<>(new TileCache.Recycler<Bitmap>() {
+        @Override
+        public void recycle(Bitmap tile) {
+            RoundedImageView.getBitmapPool().put(tile);
+        }
+    });
+
+    @MainThread
+    TiledImageLoader(BitmapDecoder.Source source, Listener listener) {
+        mSource = source;
+        mListener = listener;
+        DrawableRasterizer.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    private void open() {
+        final BitmapRegionDecoder decoder;
+        final Bitmap base;
+        try {
+            decoder = mSource.newRegionDecoder();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = TileGrid.computeBaseSampleSize(decoder.getWidth(), decoder.getHeight());
+            base = decoder.decodeRegion(new Rect(0, 0, decoder.getWidth(), decoder.getHeight()), options);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "open failed: " + mSource.key, e);
+            return;
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "open out of memory: " + mSource.key, e);
+            return;
+        }
+        DrawableRasterizer.getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mReleased) {
+                    recycleDecoder(decoder);
+                    return;
+                }
+                mDecoder = decoder;
+                mGrid.setImageSize(decoder.getWidth(), decoder.getHeight());
+                mBase = base;
+                update();
+            }
+        });
+    }
+
+    /**
+     * 控件图片区域的尺寸,合成的位图和它一样大.
+     */
+    @MainThread
+    void setViewport(int width, int height) {
+        if (mViewWidth == width && mViewHeight == height) {
+            return;
+        }
+        mViewWidth = width;
+        mViewHeight = height;
+        if (mComposite != null) {
+            //控件先停止使用旧的位图再归还
+            final Bitmap old = mComposite;
+            mComposite = null;
+            mListener.onCompositeChanged(null);
+            mCanvas.setBitmap(null);
+            RoundedImageView.getBitmapPool().put(old);
+        }
+        update();
+    }
+
+    /**
+     * @param zoom 相对CENTER_CROP的放大倍数,不小于1
+     * @param focusX 可见区域中心在图片中的位置,0到1
+     */
+    @MainThread
+    void setZoom(float zoom, float focusX, float focusY) {
+        mZoom = Math.max(1f, zoom);
+        mFocusX = Math.max(0f, Math.min(1f, focusX));
+        mFocusY = Math.max(0f, Math.min(1f, focusY));
+        update();
+    }
+
+    Bitmap getComposite() {
+        return mComposite;
+    }
+
+    int getImageWidth() {
+        return mGrid.getImageWidth();
+    }
+
+    int getImageHeight() {
+        return mGrid.getImageHeight();
+    }
+
+    /**
+     * 缓存中已经解码的块数量.
+     */
+    int getTileCount() {
+        return mTiles.size();
+    }
+
+    /**
+     * 重新计算可见区域和采样率,重新合成并请求缺少的块.
+     */
+    private void update() {
+        if (mDecoder == null || mReleased || mViewWidth <= 0 || mViewHeight <= 0) {
+            return;
+        }
+        if (mComposite == null) {
+            mComposite = RoundedImageView.getBitmapPool().get(mViewWidth, mViewHeight, Bitmap.Config.ARGB_8888);
+            if (mCanvas == null) {
+                mCanvas = new Canvas();
+            }
+            mCanvas.setBitmap(mComposite);
+        }
+        final TileGrid grid = mGrid;
+        grid.update(mViewWidth, mViewHeight, mZoom, mFocusX, mFocusY);
+        final int sampleSize = grid.getSampleSize();
+        mSampleSize = sampleSize;
+
+        mComposite.eraseColor(Color.TRANSPARENT);
+        if (mBase != null) {
+            //底图只在有块未解码时可见,先整体绘制一次,已经解码的块覆盖在上面
+            mTileRect.set(0, 0, grid.getImageWidth(), grid.getImageHeight());
+            drawRegion(mBase, mTileRect);
+        }
+        for (int row = grid.getFirstRow(); row < grid.getEndRow(); row++) {
+            for (int col = grid.getFirstColumn(); col < grid.getEndColumn(); col++) {
+                final long key = TileGrid.tileKey(sampleSize, row, col);
+                final Bitmap tile = mTiles.get(key);
+                if (tile != null) {
+                    drawTile(tile, row, col);
+                } else if (!mPending.contains(key)) {
+                    requestTile(key, row, col, sampleSize);
+                }
+            }
+        }
+        //可见的块刚刚访问过,淘汰的是最久没有显示的块
+        mTiles.trim(grid.getMaxTileCount());
+        mListener.onCompositeChanged(mComposite);
+    }
+
+    private void drawTile(Bitmap tile, int row, int col) {
+        setTileRect(row, col);
+        drawRegion(tile, mTileRect);
+    }
+
+    /**
+     * 把覆盖图片区域region的位图绘制到合成位图的对应位置.
+     */
+    private void drawRegion(Bitmap bitmap, Rect region) {
+        final float scale = mGrid.getScale();
+        final float left = mGrid.getVisibleLeft();
+        final float top = mGrid.getVisibleTop();
+        mDstRect.set((region.left - left) * scale, (region.top - top) * scale,
+                (region.right - left) * scale, (region.bottom - top) * scale);
+        mCanvas.drawBitmap(bitmap, null, mDstRect, mPaint);
+    }
+
+    /**
+     * 当前采样率下块覆盖的图片区域.
+     */
+    private void setTileRect(int row, int col) {
+        mTileRect.set(mGrid.getTileLeft(col), mGrid.getTileTop(row), mGrid.getTileRight(col), mGrid.getTileBottom(row));
+    }
+
+    private void requestTile(final long key, final int row, final int col, final int sampleSize) {
+        setTileRect(row, col);
+        final Rect region = new Rect(mTileRect);
+        mPending.add(key);
+        DrawableRasterizer.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap tile = mReleased || mSampleSize != sampleSize ? null : decodeTile(region, sampleSize);
+                DrawableRasterizer.getMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTileDecoded(key, row, col, sampleSize, tile);
+                    }
+                });
+            }
+        });
+    }
+
+    private Bitmap decodeTile(Rect region, int sampleSize) {
+        final BitmapRegionDecoder decoder = mDecoder;
+        if (decoder == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        Bitmap reuse = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            reuse = RoundedImageView.getBitmapPool().get((region.width() + sampleSize - 1) / sampleSize,
+                    (region.height() + sampleSize - 1) / sampleSize, Bitmap.Config.ARGB_8888);
+            options.inBitmap = reuse;
+        }
+        Bitmap tile = null;
+        try {
+            tile = decoder.decodeRegion(region, options);
+        } catch (RuntimeException e) {
+            //已经释放的解码器会抛出IllegalStateException
+            Log.w(TAG, "decode tile failed: " + region, e);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "decode tile out of memory: " + region, e);
+        }
+        if (reuse != null && tile != reuse) {
+            RoundedImageView.getBitmapPool().put(reuse);
+        }
+        return tile;
+    }
+
+    private void onTileDecoded(long key, int row, int col, int sampleSize, Bitmap tile) {
+        mPending.remove(key);
+        if (tile == null) {
+            return;
+        }
+        if (mReleased || sampleSize != mSampleSize) {
+            RoundedImageView.getBitmapPool().put(tile);
+            return;
+        }
+        mTiles.put(key, tile);
+        mTiles.trim(mGrid.getMaxTileCount());
+        if (mGrid.isTileVisible(row, col)) {
+            //只把新的块绘制到合成位图上
+            setTileRect(row, col);
+            drawRegion(tile, mTileRect);
+            mListener.onCompositeChanged(mComposite);
+        }
+    }
+
+    /**
+     * 释放所有位图和解码器,调用前控件需要先停止使用合成的位图.
+     */
+    @MainThread
+    void release() {
+        mReleased = true;
+        final BitmapPool pool = RoundedImageView.getBitmapPool();
+        mTiles.clear();
+        if (mComposite != null) {
+            mCanvas.setBitmap(null);
+            pool.put(mComposite);
+            mComposite = null;
+        }
+        mBase = null;
+        if (mDecoder != null) {
+            recycleDecoder(mDecoder);
+            mDecoder = null;
+        }
+    }
+
+    private static void recycleDecoder(final BitmapRegionDecoder decoder) {
+        //可能还有块在解码,放到后台线程释放
+        DrawableRasterizer.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                decoder.recycle();
+            }
+        });
+    }
+}
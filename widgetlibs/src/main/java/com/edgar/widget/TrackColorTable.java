@@ -0,0 +1,77 @@
+package com.edgar.widget;
+
+import androidx.annotation.ColorInt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by Edgar on 2019/08/28.
+ * {@link SwitchButton}轨道颜色的查找表,按切换进度0~255预先计算未选中色到选中色之间的256个颜色,
+ * 动画每一帧只需要一次数组查找.相同颜色组合的控件共享同一张表.
+ */
+final class TrackColorTable {
+
+    static final int SIZE = 256;
+    private static final int MAX_TABLES = 16;
+
+    private static final LinkedHashMap<Long, int[]> sTables =
+            new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                    return size() > MAX_TABLES;
+                }
+            };
+
+    private TrackColorTable() {}
+
+    /**
+     * 获取共享的查找表,调用方不能修改返回的数组.
+     */
+    static int[] get(@ColorInt int from, @ColorInt int to) {
+        final Long key = ((long) from << 32) | (to & 0xFFFFFFFFL);
+        synchronized (sTables) {
+            int[] table = sTables.get(key);
+            if (table == null) {
+                table = build(from, to);
+                sTables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * 按ARGB分量线性插值,两端都不透明时和选中层按progress透明度叠加在未选中层上的结果相同.
+     */
+    static int[] build(@ColorInt int from, @ColorInt int to) {
+        final int[] table = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            table[i] = blend(from, to, i);
+        }
+        return table;
+    }
+
+    /**
+     * 滑块位置对应的切换进度,start和end是未选中和选中时滑块的位置,两端分别精确等于0和{@link #SIZE}-1.
+     */
+    static int computeProgress(int position, int start, int end) {
+        if (end <= start) {
+            return position > start ? SIZE - 1 : 0;
+        }
+        final int progress = Math.round((float) (position - start) * (SIZE - 1) / (end - start));
+        return Math.max(0, Math.min(progress, SIZE - 1));
+    }
+
+    private static int blend(int from, int to, int progress) {
+        final int a = channel(from >>> 24, to >>> 24, progress);
+        final int r = channel((from >> 16) & 0xFF, (to >> 16) & 0xFF, progress);
+        final int g = channel((from >> 8) & 0xFF, (to >> 8) & 0xFF, progress);
+        final int b = channel(from & 0xFF, to & 0xFF, progress);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int channel(int from, int to, int progress) {
+        //四舍五入,0和255两端精确等于原色
+        return (from * (255 - progress) + to * progress + 127) / 255;
+    }
+}
@@ -0,0 +1,32 @@
+package com.edgar.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/22.
+ */
+public class BitmapDecoderTest {
+
+    @Test
+    public void sampleSizeKeepsBothSidesCovered() {
+        assertEquals(1, BitmapDecoder.computeSampleSize(100, 100, 100, 100));
+        assertEquals(1, BitmapDecoder.computeSampleSize(399, 399, 200, 200));
+        assertEquals(2, BitmapDecoder.computeSampleSize(400, 400, 200, 200));
+        //CENTER_CROP按较短的一边计算
+        assertEquals(2, BitmapDecoder.computeSampleSize(4000, 400, 200, 200));
+        assertEquals(8, BitmapDecoder.computeSampleSize(4000, 3000, 300, 300));
+        //目标比图片大时不采样
+        assertEquals(1, BitmapDecoder.computeSampleSize(100, 100, 400, 400));
+    }
+
+    @Test
+    public void scaleCoversTargetAndSkipsSmallReductions() {
+        assertEquals(0.5f, BitmapDecoder.computeScale(400, 300, 200, 100), 0f);
+        assertEquals(0.5f, BitmapDecoder.computeScale(300, 400, 100, 200), 0f);
+        //缩小不到20%时不缩放
+        assertEquals(1f, BitmapDecoder.computeScale(500, 375, 450, 300), 0f);
+        assertEquals(1f, BitmapDecoder.computeScale(100, 100, 200, 200), 0f);
+    }
+}
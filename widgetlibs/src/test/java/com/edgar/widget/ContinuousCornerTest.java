@@ -0,0 +1,68 @@
+package com.edgar.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/25.
+ */
+public class ContinuousCornerTest {
+
+    private static final float EPSILON = 1e-4f;
+
+    @Test
+    public void zeroSmoothingIsCircularArc() {
+        float[] template = ContinuousCorner.buildTemplate(0, 8);
+        for (int i = 0; i < template.length; i += 2) {
+            //普通圆角的圆心在(-1, 1)
+            double distance = Math.hypot(template[i] + 1, template[i + 1] - 1);
+            assertEquals(1, distance, EPSILON);
+        }
+    }
+
+    @Test
+    public void templateIsSymmetricAndSpansExtent() {
+        final float smoothing = 0.6f;
+        final int segments = 8;
+        float[] template = ContinuousCorner.buildTemplate(smoothing, segments);
+        assertEquals((segments * 3 + 1) * 2, template.length);
+        assertEquals(-(1 + smoothing), template[0], EPSILON);
+        assertEquals(0, template[1], EPSILON);
+        assertEquals(0, template[template.length - 2], EPSILON);
+        assertEquals(1 + smoothing, template[template.length - 1], EPSILON);
+        //关于对角线对称:(x, y)对应(-y, -x)
+        final int count = template.length / 2;
+        for (int i = 0; i < count; i++) {
+            int j = count - 1 - i;
+            assertEquals(template[i * 2], -template[j * 2 + 1], EPSILON);
+            assertEquals(template[i * 2 + 1], -template[j * 2], EPSILON);
+        }
+        //曲线单调地从上边走到右边
+        for (int i = 1; i < count; i++) {
+            assertTrue(template[i * 2] >= template[(i - 1) * 2] - EPSILON);
+            assertTrue(template[i * 2 + 1] >= template[(i - 1) * 2 + 1] - EPSILON);
+        }
+    }
+
+    @Test
+    public void smoothingShrinksWhenCurveDoesNotFit() {
+        assertEquals(0.6f, ContinuousCorner.effectiveSmoothing(10, 0.6f, 50), EPSILON);
+        assertEquals(0.25f, ContinuousCorner.effectiveSmoothing(40, 0.6f, 50), EPSILON);
+        assertEquals(0, ContinuousCorner.effectiveSmoothing(50, 0.6f, 50), EPSILON);
+    }
+
+    @Test
+    public void templatesAreSharedAndBounded() {
+        float[] template = ContinuousCorner.getTemplate(0.6f, 4);
+        final int builds = ContinuousCorner.getBuildCount();
+        //量化后相同的平滑度复用同一个模板
+        assertSame(template, ContinuousCorner.getTemplate(0.6f, 4));
+        assertSame(template, ContinuousCorner.getTemplate(0.605f, 4));
+        assertEquals(builds, ContinuousCorner.getBuildCount());
+        for (int i = 0; i <= 100; i++) {
+            ContinuousCorner.getTemplate(i / 100f, 16);
+        }
+        assertTrue(ContinuousCorner.getTemplateCount() <= 64);
+    }
+}
@@ -0,0 +1,140 @@
+package com.edgar.widget;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/21.
+ */
+public class MappedBlobStoreTest {
+
+    private static final int CAPACITY = 64;
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("blob-store", "");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDir);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static byte[] bytes(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void putGetAndOverwrite() throws IOException {
+        MappedBlobStore store = new MappedBlobStore(mDir, 1 << 20, CAPACITY);
+        assertNull(store.get("a"));
+        assertTrue(store.put("a", bytes(100, 1)));
+        assertTrue(store.put("b", bytes(50, 2)));
+        assertArrayEquals(bytes(100, 1), store.get("a"));
+        assertArrayEquals(bytes(50, 2), store.get("b"));
+        assertTrue(store.put("a", bytes(10, 3)));
+        assertArrayEquals(bytes(10, 3), store.get("a"));
+        assertEquals(2, store.size());
+        assertTrue(store.remove("b"));
+        assertNull(store.get("b"));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws IOException {
+        MappedBlobStore store = new MappedBlobStore(mDir, 1 << 20, CAPACITY);
+        for (int i = 0; i < 20; i++) {
+            store.put("key" + i, bytes(64, i));
+        }
+        store.close();
+
+        store = new MappedBlobStore(mDir, 1 << 20, CAPACITY);
+        assertEquals(20, store.size());
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(bytes(64, i), store.get("key" + i));
+        }
+        store.close();
+    }
+
+    @Test
+    public void compactionKeepsRecentlyUsedEntries() throws IOException {
+        final int maxSize = 4096;
+        MappedBlobStore store = new MappedBlobStore(mDir, maxSize, CAPACITY);
+        store.put("hot", bytes(200, 7));
+        for (int i = 0; i < 40; i++) {
+            store.put("cold" + i, bytes(200, i));
+            //每次写入后访问一次,保持为最近使用
+            assertNotNull(store.get("hot"));
+        }
+        assertTrue(store.getCompactionCount() > 0);
+        assertTrue(store.getDiskSize() <= maxSize);
+        assertArrayEquals(bytes(200, 7), store.get("hot"));
+        assertNull(store.get("cold0"));
+        assertNotNull(store.get("cold39"));
+        store.close();
+
+        //整理后只保留新的分段
+        store = new MappedBlobStore(mDir, maxSize, CAPACITY);
+        assertArrayEquals(bytes(200, 7), store.get("hot"));
+        long segmentBytes = 0;
+        for (File file : mDir.listFiles()) {
+            if (file.getName().startsWith("segment-")) {
+                segmentBytes += file.length();
+            }
+        }
+        assertEquals(store.getDiskSize(), segmentBytes);
+        store.close();
+    }
+
+    @Test
+    public void truncatedSegmentDropsIncompleteRecords() throws IOException {
+        MappedBlobStore store = new MappedBlobStore(mDir, 1 << 20, CAPACITY);
+        store.put("a", bytes(100, 1));
+        store.put("b", bytes(100, 2));
+        store.close();
+        //模拟写入"b"的数据时崩溃
+        RandomAccessFile segment = new RandomAccessFile(new File(mDir, "segment-0"), "rw");
+        segment.setLength(segment.length() - 10);
+        segment.close();
+
+        store = new MappedBlobStore(mDir, 1 << 20, CAPACITY);
+        assertArrayEquals(bytes(100, 1), store.get("a"));
+        assertNull(store.get("b"));
+        assertEquals(1, store.size());
+        store.close();
+    }
+
+    @Test
+    public void oversizedRecordIsRejected() throws IOException {
+        MappedBlobStore store = new MappedBlobStore(mDir, 1024, CAPACITY);
+        assertFalse(store.put("big", bytes(1024, 0)));
+        assertEquals(0, store.size());
+        store.close();
+    }
+}
@@ -0,0 +1,132 @@
+package com.edgar.widget;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/27.
+ */
+public class ThumbAnimatorTest {
+
+    private static final long DURATION = 200;
+
+    @Test
+    public void runsFromStartToTarget() {
+        ThumbAnimator animator = new ThumbAnimator();
+        animator.start(10, 110, 1000, DURATION);
+        assertTrue(animator.doFrame(1000));
+        assertEquals(10, animator.getPosition(), 0.001f);
+        assertTrue(animator.doFrame(1100));
+        assertEquals(60, animator.getPosition(), 0.001f);
+        assertFalse(animator.doFrame(1000 + DURATION));
+        assertEquals(110, animator.getPosition(), 0f);
+        assertFalse(animator.isRunning());
+    }
+
+    @Test
+    public void cancelStopsAtCurrentPosition() {
+        ThumbAnimator animator = new ThumbAnimator();
+        animator.start(0, 100, 0, DURATION);
+        animator.doFrame(50);
+        final float position = animator.getPosition();
+        animator.cancel();
+        assertFalse(animator.doFrame(100));
+        assertEquals(position, animator.getPosition(), 0f);
+    }
+
+    @Test
+    public void springSettlesAtTargetWithoutOvershootFromRest() {
+        ThumbAnimator animator = new ThumbAnimator();
+        animator.startSpring(0, 100, 0, 0);
+        float last = 0;
+        long now = 0;
+        while (animator.doFrame(now)) {
+            assertTrue(animator.getPosition() >= last);
+            assertTrue(animator.getPosition() <= 100);
+            last = animator.getPosition();
+            now += 16;
+        }
+        assertEquals(100, animator.getPosition(), 0f);
+        assertEquals(0, animator.getVelocity(), 0f);
+        //临界阻尼的弹簧在半秒内静止
+        assertTrue("settled after " + now + "ms", now <= 500);
+    }
+
+    @Test
+    public void springStartsWithReleaseVelocity() {
+        ThumbAnimator animator = new ThumbAnimator();
+        animator.startSpring(50, 100, 800, 0);
+        animator.doFrame(0);
+        assertEquals(50, animator.getPosition(), 0.001f);
+        assertEquals(800, animator.getVelocity(), 0.01f);
+        //同样的起点,带速度的滑块先到达附近
+        ThumbAnimator rest = new ThumbAnimator();
+        rest.startSpring(50, 100, 0, 0);
+        animator.doFrame(32);
+        rest.doFrame(32);
+        assertTrue(animator.getPosition() > rest.getPosition());
+    }
+
+    @Test
+    public void retargetKeepsPositionAndVelocity() {
+        ThumbAnimator animator = new ThumbAnimator();
+        animator.startSpring(0, 100, 0, 0);
+        assertTrue(animator.doFrame(48));
+        final float position = animator.getPosition();
+        final float velocity = animator.getVelocity();
+        assertTrue(velocity > 0);
+        animator.retarget(0, 48);
+        assertTrue(animator.doFrame(48));
+        assertEquals(position, animator.getPosition(), 0.001f);
+        assertEquals(velocity, animator.getVelocity(), 0.01f);
+        //惯性让滑块继续向前一段再返回
+        animator.doFrame(56);
+        assertTrue(animator.getPosition() > position);
+        long now = 56;
+        while (animator.doFrame(now)) {
+            now += 16;
+        }
+        assertEquals(0, animator.getPosition(), 0f);
+    }
+
+    @Test
+    public void framesDoNotAllocate() {
+        final com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final ThumbAnimator animator = new ThumbAnimator();
+        //预热,避免统计到类加载和JIT的分配
+        runAnimations(animator, 20000);
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        final int frames = runAnimations(animator, 1000);
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue(frames > 0);
+        assertEquals("allocated " + allocated + " bytes in " + frames + " frames", 0, allocated);
+    }
+
+    private static int runAnimations(ThumbAnimator animator, int count) {
+        int frames = 0;
+        for (int i = 0; i < count; i++) {
+            long now = i * DURATION;
+            if (i % 2 == 0) {
+                animator.start(0, 100, now, DURATION);
+            } else {
+                animator.startSpring(100, 0, -1000, now);
+            }
+            boolean retargeted = false;
+            while (animator.doFrame(now)) {
+                now += 16;
+                frames++;
+                if (!retargeted && animator.isSpringRunning()) {
+                    //弹簧中途切换一次
+                    animator.retarget(100, now);
+                    retargeted = true;
+                }
+            }
+        }
+        return frames;
+    }
+}
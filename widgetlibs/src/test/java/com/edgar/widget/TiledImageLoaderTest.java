@@ -0,0 +1,118 @@
+package com.edgar.widget;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/24.
+ */
+public class TiledImageLoaderTest {
+
+    @Test
+    public void tilesAreNeverMagnifiedOnScreen() {
+        assertEquals(1, TileGrid.computeSampleSize(1f));
+        assertEquals(1, TileGrid.computeSampleSize(0.6f));
+        assertEquals(2, TileGrid.computeSampleSize(0.5f));
+        assertEquals(4, TileGrid.computeSampleSize(0.2f));
+        //放大显示时不采样
+        assertEquals(1, TileGrid.computeSampleSize(3f));
+    }
+
+    @Test
+    public void baseLayerIsBoundedByLongSide() {
+        assertEquals(1, TileGrid.computeBaseSampleSize(512, 300));
+        assertEquals(2, TileGrid.computeBaseSampleSize(513, 300));
+        assertEquals(16, TileGrid.computeBaseSampleSize(8000, 6000));
+    }
+
+    @Test
+    public void fullImageUsesFewLargeTiles() {
+        TileGrid grid = new TileGrid();
+        grid.setImageSize(4096, 3072);
+        grid.update(400, 300, 1f, 0.5f, 0.5f);
+        assertEquals(8, grid.getSampleSize());
+        assertEquals(0, grid.getVisibleLeft(), 0.001f);
+        assertEquals(4096, grid.getVisibleRight(), 0.001f);
+        assertEquals(0, grid.getFirstColumn());
+        assertEquals(2, grid.getEndColumn());
+        assertEquals(0, grid.getFirstRow());
+        assertEquals(2, grid.getEndRow());
+        //最后一行在图片边缘截断
+        assertEquals(3072, grid.getTileBottom(1));
+    }
+
+    @Test
+    public void onlyTilesIntersectingVisibleRectAreSelected() {
+        TileGrid grid = new TileGrid();
+        grid.setImageSize(4096, 3072);
+        grid.update(400, 300, 4f, 0.25f, 0.25f);
+        assertEquals(2, grid.getSampleSize());
+        assertEquals(512, grid.getTileImageSize());
+        //可见区域[512, 1536] x [384, 1152]
+        assertEquals(512, grid.getVisibleLeft(), 0.001f);
+        assertEquals(384, grid.getVisibleTop(), 0.001f);
+        assertEquals(1, grid.getFirstColumn());
+        assertEquals(3, grid.getEndColumn());
+        assertEquals(0, grid.getFirstRow());
+        assertEquals(3, grid.getEndRow());
+        for (int row = grid.getFirstRow(); row < grid.getEndRow(); row++) {
+            for (int col = grid.getFirstColumn(); col < grid.getEndColumn(); col++) {
+                assertTrue(row + "," + col, grid.isTileVisible(row, col));
+            }
+        }
+        //只接触可见区域边缘的块不显示
+        assertFalse(grid.isTileVisible(0, 0));
+        assertFalse(grid.isTileVisible(0, 3));
+        assertFalse(grid.isTileVisible(3, 1));
+        assertEquals(9, grid.getMaxTileCount());
+    }
+
+    @Test
+    public void focusIsClampedInsideImage() {
+        TileGrid grid = new TileGrid();
+        grid.setImageSize(4096, 3072);
+        grid.update(400, 300, 2f, 1f, 1f);
+        assertEquals(4096, grid.getVisibleRight(), 0.001f);
+        assertEquals(3072, grid.getVisibleBottom(), 0.001f);
+        assertTrue(grid.isTileVisible(grid.getEndRow() - 1, grid.getEndColumn() - 1));
+    }
+
+    @Test
+    public void tileKeysDifferBySampleSize() {
+        assertTrue(TileGrid.tileKey(1, 2, 3) != TileGrid.tileKey(2, 2, 3));
+        assertTrue(TileGrid.tileKey(1, 2, 3) != TileGrid.tileKey(1, 3, 2));
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyShownTiles() {
+        final List<String> recycled = new ArrayList<>();
+        TileCache<String> cache = new TileCache<>(new TileCache.Recycler<String>() {
+            @Override
+            public void recycle(String tile) {
+                recycled.add(tile);
+            }
+        });
+        for (int i = 1; i <= 4; i++) {
+            cache.put(i, "tile" + i);
+        }
+        //重新显示的块移到最后
+        assertEquals("tile1", cache.get(1));
+        cache.trim(2);
+        assertEquals(Arrays.asList("tile2", "tile3"), recycled);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(2));
+        assertEquals("tile4", cache.get(4));
+
+        //同一个key换成新的块时归还旧的块
+        cache.put(4, "tile4b");
+        assertEquals("tile4", recycled.get(2));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertTrue(recycled.containsAll(Arrays.asList("tile1", "tile4b")));
+    }
+}
@@ -0,0 +1,53 @@
+package com.edgar.widget;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Edgar on 2019/08/28.
+ */
+public class TrackColorTableTest {
+
+    @Test
+    public void endsMatchTrackColors() {
+        final int from = 0xFFE5E5E5;
+        final int to = 0xFF4CD964;
+        int[] table = TrackColorTable.build(from, to);
+        assertEquals(TrackColorTable.SIZE, table.length);
+        assertEquals(from, table[0]);
+        assertEquals(to, table[TrackColorTable.SIZE - 1]);
+    }
+
+    @Test
+    public void matchesAlphaCrossFadeOfOpaqueColors() {
+        final int from = 0xFF000000;
+        final int to = 0xFFFFFF00;
+        int[] table = TrackColorTable.build(from, to);
+        //选中层按128透明度叠加在黑色上
+        assertEquals(0xFF808000, table[128]);
+        for (int i = 1; i < table.length; i++) {
+            assertTrue(((table[i] >> 16) & 0xFF) >= ((table[i - 1] >> 16) & 0xFF));
+            assertEquals(0xFF, table[i] >>> 24);
+        }
+    }
+
+    @Test
+    public void restPositionsMapToEndsOfTable() {
+        //默认尺寸:滑块停在padding和轨道宽度-padding-滑块宽度处
+        final int start = 9;
+        final int end = 87;
+        assertEquals(0, TrackColorTable.computeProgress(start, start, end));
+        assertEquals(TrackColorTable.SIZE - 1, TrackColorTable.computeProgress(end, start, end));
+        assertEquals(128, TrackColorTable.computeProgress((start + end) / 2, start, end));
+        //弹簧越过两端时不超出查找表
+        assertEquals(0, TrackColorTable.computeProgress(0, start, end));
+        assertEquals(TrackColorTable.SIZE - 1, TrackColorTable.computeProgress(end + 10, start, end));
+    }
+
+    @Test
+    public void tablesAreShared() {
+        assertSame(TrackColorTable.get(0xFFE5E5E5, 0xFF4CD964), TrackColorTable.get(0xFFE5E5E5, 0xFF4CD964));
+        assertNotSame(TrackColorTable.get(0xFFE5E5E5, 0xFF4CD964), TrackColorTable.get(0xFF4CD964, 0xFFE5E5E5));
+    }
+}